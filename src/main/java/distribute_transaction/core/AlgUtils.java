@@ -128,6 +128,33 @@ public class AlgUtils {
         return low;
     }
 
+    /**
+     * 按字典序比较两个元组，逐列比较原始值，较短的元组是较长元组的前缀时排在前面
+     * @return      小于0、等于0、大于0分别表示first小于、等于、大于second
+     */
+    public static int compareTuple(long[] first, long[] second){
+        int length = Math.min(first.length, second.length);
+        for(int i=0;i<length;i++){
+            if(first[i]!=second[i])
+                return first[i]<second[i] ? -1 : 1;
+        }
+        return first.length-second.length;
+    }
+
+    /**
+     * 按字典序比较两个元组，各列作为无符号数比较，较短的元组是较长元组的前缀时排在前面。
+     * 把字节串按大端序每8个字节打包为一列后，比较结果与逐字节的无符号比较一致
+     * @return      小于0、等于0、大于0分别表示first小于、等于、大于second
+     */
+    public static int compareUnsignedTuple(long[] first, long[] second){
+        int length = Math.min(first.length, second.length);
+        for(int i=0;i<length;i++){
+            if(first[i]!=second[i])
+                return Long.compareUnsigned(first[i], second[i]);
+        }
+        return first.length-second.length;
+    }
+
     /**
      * 把list分为两半，新list从index到list的最后一个元素
      * @param list  原始list
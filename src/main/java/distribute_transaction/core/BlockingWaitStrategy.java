@@ -0,0 +1,54 @@
+package distribute_transaction.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 在条件变量上阻塞，直到生产者调用{@link #signalAll()}。生产者的通知可能发生在消费
+ * 线程检查队列之后、开始等待之前，因此等待带有超时，丢失的通知最多延迟一个超时周期
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final long timeoutNanos;
+    //正在等待的线程数，没有等待线程时生产者不需要加锁
+    private volatile int waiters = 0;
+
+    public BlockingWaitStrategy() {
+        this(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    public BlockingWaitStrategy(long timeoutNanos) {
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    @Override
+    public int idle(int idleCount) {
+        lock.lock();
+        try {
+            waiters++;
+            notEmpty.awaitNanos(timeoutNanos);
+        } catch (InterruptedException e) {
+            //调用方会重新检查关闭标志
+        } finally {
+            waiters--;
+            lock.unlock();
+        }
+        return idleCount == Integer.MAX_VALUE ? idleCount : idleCount + 1;
+    }
+
+    @Override
+    public void signalAll() {
+        if (waiters == 0)
+            return;
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
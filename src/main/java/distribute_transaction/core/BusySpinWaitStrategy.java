@@ -0,0 +1,17 @@
+package distribute_transaction.core;
+
+/**
+ * 忙等，不让出CPU，适用于对延迟极其敏感且有独占核的部署
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public int idle(int idleCount) {
+        return idleCount == Integer.MAX_VALUE ? idleCount : idleCount + 1;
+    }
+
+    @Override
+    public void signalAll() {
+    }
+
+}
@@ -0,0 +1,150 @@
+package distribute_transaction.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 按字节序编码的主键(memcomparable)，编码后按无符号字节的字典序比较即与原值的顺序一致，
+ * 比较时不再逐个比较UTF-16字符，也不需要知道各列的类型。
+ * <p>
+ * 每列依次编码：long为符号位取反后的8字节大端序；字符串为UTF-8字节，其中的0字节
+ * 转义为0x00 0xFF，最后以0x00 0x01结束，因此短字符串排在以它为前缀的字符串之前，
+ * 且只给出前几列的key是完整key的字节前缀。UTF-8的字节序即码点顺序，与String.compareTo
+ * 只在代理对与U+E000以上的字符之间不同。
+ * <p>
+ * 编码后的字节按大端序每8个字节打包为一个long，最后一个不足8个字节时低位补0，
+ * 比较时每次比较8个字节，见{@link AlgUtils#compareUnsignedTuple}，打包结果相同时较短的key排在前面。
+ * 对象创建后不可修改
+ */
+public final class ByteKey implements Comparable<ByteKey> {
+
+    private static final byte ESCAPE = (byte) 0xff;
+    private static final byte TERMINATOR = 0x01;
+
+    //编码后的字节，按大端序每8个字节打包
+    private final long[] words;
+    //编码后的字节数
+    private final int length;
+
+    private ByteKey(byte[] bytes, int length) {
+        this.length = length;
+        this.words = new long[(length + 7) >>> 3];
+        for (int i = 0; i < length; i++)
+            words[i >>> 3] |= (bytes[i] & 0xffL) << (56 - ((i & 7) << 3));
+    }
+
+    /**
+     * 单列字符串主键，编码与{@link Builder#append(String)}相同
+     */
+    public static ByteKey of(String value) {
+        return new Builder().append(value).build();
+    }
+
+    /**
+     * 多列整型主键，与{@link CompositeKey#of}的顺序一致
+     */
+    public static ByteKey of(long... columns) {
+        Builder builder = new Builder();
+        for (long column : columns)
+            builder.append(column);
+        return builder.build();
+    }
+
+    /**
+     * 由{@link #toBytes}得到的编码恢复key
+     */
+    public static ByteKey fromBytes(byte[] bytes) {
+        return new ByteKey(bytes, bytes.length);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int length() {
+        return length;
+    }
+
+    //编码后的字节
+    public byte[] toBytes() {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++)
+            bytes[i] = (byte) (words[i >>> 3] >>> (56 - ((i & 7) << 3)));
+        return bytes;
+    }
+
+    @Override
+    public int compareTo(ByteKey other) {
+        int compare = AlgUtils.compareUnsignedTuple(words, other.words);
+        //补0后相同时较短的一方是另一方的前缀
+        return compare != 0 ? compare : length - other.length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof ByteKey))
+            return false;
+        ByteKey other = (ByteKey) obj;
+        return length == other.length && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(words) + length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : toBytes())
+            builder.append(String.format("%02x", b & 0xff));
+        return builder.toString();
+    }
+
+    /**
+     * 按列依次追加编码，非线程安全
+     */
+    public static final class Builder {
+
+        private byte[] buffer = new byte[16];
+        private int size = 0;
+
+        public Builder append(long column) {
+            ensure(8);
+            long flipped = column ^ Long.MIN_VALUE;
+            for (int shift = 56; shift >= 0; shift -= 8)
+                buffer[size++] = (byte) (flipped >>> shift);
+            return this;
+        }
+
+        public Builder append(String column) {
+            byte[] utf8 = column.getBytes(StandardCharsets.UTF_8);
+            int zeros = 0;
+            for (byte b : utf8) {
+                if (b == 0)
+                    zeros++;
+            }
+            ensure(utf8.length + zeros + 2);
+            for (byte b : utf8) {
+                buffer[size++] = b;
+                if (b == 0)
+                    buffer[size++] = ESCAPE;
+            }
+            buffer[size++] = 0;
+            buffer[size++] = TERMINATOR;
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + extra));
+        }
+
+        public ByteKey build() {
+            return new ByteKey(buffer, size);
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package distribute_transaction.core;
+
+import java.util.Arrays;
+
+/**
+ * 多列组合主键，例如(tenant_id, order_id)。各列统一展开为long保存在一个数组中，
+ * 比较时逐列比较原始值，见{@link AlgUtils#compareTuple}，不再经过字符串拼接或装箱类型。
+ * <p>
+ * 只给出前几列的key是完整key的前缀，排在所有以它为前缀的key之前，
+ * 因此[(1), (2))覆盖tenant_id为1的所有行。对象创建后不可修改
+ */
+public final class CompositeKey implements Comparable<CompositeKey> {
+
+    private final long[] columns;
+
+    private CompositeKey(long[] columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * @param columns   各列的值，Integer列直接转换为long，不改变顺序
+     */
+    public static CompositeKey of(long... columns) {
+        if (columns.length == 0)
+            throw new IllegalArgumentException("composite key should have at least one column");
+        return new CompositeKey(columns.clone());
+    }
+
+    public long get(int column) {
+        return columns[column];
+    }
+
+    public int columnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public int compareTo(CompositeKey other) {
+        return AlgUtils.compareTuple(columns, other.columns);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        return obj instanceof CompositeKey && Arrays.equals(columns, ((CompositeKey) obj).columns);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(columns);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0)
+                builder.append(',');
+            builder.append(columns[i]);
+        }
+        return builder.append(')').toString();
+    }
+
+}
@@ -0,0 +1,122 @@
+package distribute_transaction.core;
+
+import java.util.Arrays;
+
+/**
+ * 以long为key、long为值的开放寻址哈希表，用于计数类的场景：不存在的key读到的值为0，
+ * 值被设为0时直接删除该key，因此哈希表中只保存非零的值。线性探测，删除时把后续结点前移。
+ * 非线程安全
+ */
+public class LongLongHashMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    //值为0的槽位为空
+    private long[] values;
+    private int mask;
+    private int shift;
+    private int size = 0;
+    private int resizeThreshold;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int slotOf(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /**
+     * @return key对应的值，不存在时返回0
+     */
+    public long get(long key) {
+        for (int i = slotOf(key); values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return values[i];
+        }
+        return 0;
+    }
+
+    /**
+     * 设置key对应的值，value为0时删除该key
+     */
+    public void put(long key, long value) {
+        int i = slotOf(key);
+        for (; values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                if (value == 0)
+                    removeAt(i);
+                else
+                    values[i] = value;
+                return;
+            }
+        }
+        if (value == 0)
+            return;
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeThreshold)
+            resize();
+    }
+
+    //删除槽位i，并把探测链上后续可以前移的结点前移
+    private void removeAt(int i) {
+        values[i] = 0;
+        size--;
+        int hole = i;
+        for (int j = (i + 1) & mask; values[j] != 0; j = (j + 1) & mask) {
+            int home = slotOf(keys[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                values[j] = 0;
+                hole = j;
+            }
+        }
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int j = slotOf(oldKeys[i]);
+                while (values[j] != 0)
+                    j = (j + 1) & mask;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        if (size == 0)
+            return;
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+}
@@ -0,0 +1,152 @@
+package distribute_transaction.core;
+
+import java.util.Arrays;
+
+/**
+ * 以long为key的开放寻址哈希表，线性探测，删除时把后续结点前移而不留墓碑。
+ * 与HashMap相比不需要装箱key，也不为每个元素分配Entry，适用于key数量大、读写频繁的场景。
+ * 非线程安全
+ * @param <V>   值类型，值不能为null
+ */
+public class LongObjectHashMap<V> {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    //值为null的槽位为空
+    private Object[] values;
+    private int mask;
+    private int shift;
+    private int size = 0;
+    private int resizeThreshold;
+
+    public LongObjectHashMap() {
+        this(16);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    //乘法散列，取高位作为下标
+    private int slotOf(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = slotOf(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return (V) values[i];
+        }
+        return null;
+    }
+
+    /**
+     * @return 原来的值，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null)
+            throw new NullPointerException("value can not be null");
+        int i = slotOf(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > resizeThreshold)
+            resize();
+        return null;
+    }
+
+    /**
+     * @return 被删除的值，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        for (int i = slotOf(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                removeAt(i);
+                return old;
+            }
+        }
+        return null;
+    }
+
+    //删除槽位i，并把探测链上后续可以前移的结点前移
+    private void removeAt(int i) {
+        values[i] = null;
+        size--;
+        int hole = i;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slotOf(keys[j]);
+            //home不在(hole, j]之间时，结点j可以移到hole
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                values[j] = null;
+                hole = j;
+            }
+        }
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slotOf(oldKeys[i]);
+                while (values[j] != null)
+                    j = (j + 1) & mask;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * 把所有key写入buffer，buffer不够大时重新分配，调用方可以在遍历key的同时修改哈希表
+     * @param buffer    复用的缓冲区，可以为null
+     * @return 写入key的缓冲区，有效长度为{@link #size()}
+     */
+    public long[] keys(long[] buffer) {
+        if (buffer == null || buffer.length < size)
+            buffer = new long[size];
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null)
+                buffer[n++] = keys[i];
+        }
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+}
@@ -0,0 +1,95 @@
+package distribute_transaction.core;
+
+/**
+ * 有界的对象池，用于复用生命周期很短、创建频繁的对象。池中最多保存capacity个空闲对象，
+ * 池满时归还的对象直接丢弃，交给GC回收。取不到对象时返回null，由调用方创建新对象，
+ * 对象的重置也由调用方负责。
+ * <p>
+ * 记录命中率与在外对象数，用于判断池的大小是否合适。非线程安全
+ * @param <T>   对象类型
+ */
+public class ObjectPool<T> {
+
+    private final Object[] free;
+    private int size = 0;
+
+    //命中与未命中的次数
+    private long hits = 0;
+    private long misses = 0;
+    //归还的次数，以及其中因池满被丢弃的次数
+    private long recycled = 0;
+    private long dropped = 0;
+
+    public ObjectPool(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity should not be negative, " + capacity);
+        this.free = new Object[capacity];
+    }
+
+    /**
+     * 取出一个空闲对象
+     * @return 池为空时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public T obtain() {
+        if (size == 0) {
+            misses++;
+            return null;
+        }
+        hits++;
+        T object = (T) free[--size];
+        free[size] = null;
+        return object;
+    }
+
+    /**
+     * 归还一个已经不再被引用的对象
+     * @return 池已满、对象被丢弃时返回false
+     */
+    public boolean recycle(T object) {
+        recycled++;
+        if (size == free.length) {
+            dropped++;
+            return false;
+        }
+        free[size++] = object;
+        return true;
+    }
+
+    /**
+     * 取对象时命中的比例，还没有取过对象时为0
+     */
+    public double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * 取出后尚未归还的对象数，包含池为空时调用方新建的对象
+     */
+    public long outstanding() {
+        return hits + misses - recycled;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    public long dropped() {
+        return dropped;
+    }
+
+    //池中空闲的对象数
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return free.length;
+    }
+
+}
@@ -0,0 +1,48 @@
+package distribute_transaction.core;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 先自旋，再让出CPU，之后以指数退避的方式park，休眠时间从minParkNanos开始
+ * 翻倍增长，直到maxParkNanos。繁忙时延迟接近自旋，空闲时几乎不占用CPU
+ */
+public class ParkingWaitStrategy implements WaitStrategy {
+
+    private final int spinTries;
+    private final int yieldTries;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    public ParkingWaitStrategy() {
+        this(100, 100, 1000, 1000000);
+    }
+
+    public ParkingWaitStrategy(int spinTries, int yieldTries, long minParkNanos, long maxParkNanos) {
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    @Override
+    public int idle(int idleCount) {
+        if (idleCount < spinTries) {
+            return idleCount + 1;
+        }
+        if (idleCount < spinTries + yieldTries) {
+            Thread.yield();
+            return idleCount + 1;
+        }
+        int parkRound = idleCount - spinTries - yieldTries;
+        long parkNanos = parkRound >= 62 ? maxParkNanos : Math.min(maxParkNanos, minParkNanos << parkRound);
+        if (parkNanos <= 0)
+            parkNanos = maxParkNanos;
+        LockSupport.parkNanos(parkNanos);
+        return idleCount == Integer.MAX_VALUE ? idleCount : idleCount + 1;
+    }
+
+    @Override
+    public void signalAll() {
+    }
+
+}
@@ -0,0 +1,190 @@
+package distribute_transaction.core;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 预分配的多生产者、单消费者环形缓冲区，参照LMAX Disruptor的序号设计：
+ * 生产者通过CAS在claimSequence上申请序号，写入槽位后在published中标记该槽位的轮次；
+ * 消费者只读取轮次匹配的连续槽位，整批处理完后才推进consumedSequence，
+ * 生产者以consumedSequence作为屏障，不会覆盖尚未消费的槽位。
+ * 放入与取出都不加锁，也不为每个元素分配结点
+ * @param <E>   元素类型
+ */
+public class RingBuffer<E> {
+
+    /**
+     * 批量消费时逐个处理元素的回调
+     */
+    public interface Handler<E> {
+        void onEvent(E element);
+    }
+
+    /**
+     * 在前后填充，避免序号与其他频繁修改的字段处于同一缓存行
+     */
+    @SuppressWarnings("unused")
+    private static final class Sequence extends AtomicLong {
+        long p1, p2, p3, p4, p5, p6, p7;
+
+        Sequence(long initialValue) {
+            super(initialValue);
+        }
+    }
+
+    private final Object[] entries;
+    //每个槽位最近一次发布时的轮次，轮次为序号除以容量
+    private final AtomicIntegerArray published;
+    private final int capacity;
+    private final int mask;
+    private final int indexShift;
+    //已经被生产者申请的最大序号
+    private final Sequence claimSequence = new Sequence(-1);
+    //已经被消费者处理完的最大序号
+    private final Sequence consumedSequence = new Sequence(-1);
+    //缓冲区满时生产者的等待策略，消费者推进序号后会通知
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * @param minCapacity   最小容量，实际容量向上取整为2的幂
+     */
+    public RingBuffer(int minCapacity, WaitStrategy waitStrategy) {
+        if (minCapacity < 1 || minCapacity > 1 << 30)
+            throw new IllegalArgumentException("capacity should be in [1, 2^30], " + minCapacity);
+        int capacity = Integer.highestOneBit(minCapacity);
+        if (capacity < minCapacity)
+            capacity <<= 1;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(capacity);
+        this.entries = new Object[capacity];
+        this.published = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            published.set(i, -1);
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * 尝试放入一个元素
+     * @return 缓冲区已满时返回false
+     */
+    public boolean offer(E element) {
+        long current;
+        long next;
+        do {
+            current = claimSequence.get();
+            next = current + 1;
+            if (next - consumedSequence.get() > capacity)
+                return false;
+        } while (!claimSequence.compareAndSet(current, next));
+        publish(next, element);
+        return true;
+    }
+
+    /**
+     * 放入一个元素，缓冲区已满时按等待策略等待消费者腾出槽位
+     */
+    public void put(E element) {
+        int idleCount = 0;
+        while (!offer(element)) {
+            idleCount = waitStrategy.idle(idleCount);
+        }
+    }
+
+    /**
+     * 按集合的迭代顺序批量放入，每次申请当前所有空闲的连续序号，缓冲区已满时按等待策略等待。
+     * 同一批元素在缓冲区中保持连续，只有在集合大于剩余空间时才会被其他生产者的元素隔开
+     */
+    public void putAll(Collection<? extends E> elements) {
+        Iterator<? extends E> iterator = elements.iterator();
+        int remaining = elements.size();
+        int idleCount = 0;
+        while (remaining > 0) {
+            long current;
+            int count;
+            do {
+                current = claimSequence.get();
+                count = (int) Math.min(remaining, capacity - (current - consumedSequence.get()));
+            } while (count > 0 && !claimSequence.compareAndSet(current, current + count));
+            if (count <= 0) {
+                idleCount = waitStrategy.idle(idleCount);
+                continue;
+            }
+            idleCount = 0;
+            for (long sequence = current + 1; sequence <= current + count; sequence++) {
+                publish(sequence, iterator.next());
+            }
+            remaining -= count;
+        }
+    }
+
+    private void publish(long sequence, E element) {
+        int index = (int) sequence & mask;
+        entries[index] = element;
+        published.lazySet(index, (int) (sequence >>> indexShift));
+    }
+
+    private boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+    }
+
+    /**
+     * 取出一个元素，只能由消费线程调用
+     * @return 没有已发布的元素时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long next = consumedSequence.get() + 1;
+        if (!isPublished(next))
+            return null;
+        int index = (int) next & mask;
+        E element = (E) entries[index];
+        entries[index] = null;
+        consumedSequence.lazySet(next);
+        waitStrategy.signalAll();
+        return element;
+    }
+
+    /**
+     * 按发布顺序批量处理已发布的元素，整批处理完后才推进消费序号，只能由消费线程调用
+     * @param handler   处理每个元素的回调
+     * @param maxBatch  本批最多处理的元素数
+     * @return 处理的元素数
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Handler<? super E> handler, int maxBatch) {
+        long consumed = consumedSequence.get();
+        long next = consumed + 1;
+        while (next - consumed <= maxBatch && isPublished(next)) {
+            int index = (int) next & mask;
+            E element = (E) entries[index];
+            entries[index] = null;
+            handler.onEvent(element);
+            next++;
+        }
+        int count = (int) (next - consumed - 1);
+        if (count > 0) {
+            consumedSequence.lazySet(next - 1);
+            waitStrategy.signalAll();
+        }
+        return count;
+    }
+
+    /**
+     * 已申请但尚未消费的元素数，其中可能包含还没完成发布的槽位
+     */
+    public int size() {
+        return (int) (claimSequence.get() - consumedSequence.get());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+}
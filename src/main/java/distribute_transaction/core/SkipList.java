@@ -0,0 +1,215 @@
+package distribute_transaction.core;
+
+import java.util.Comparator;
+
+/**
+ * 允许重复key的跳表。与{@link RBTree}不同，跳表的结点对调用方可见，调用方可以
+ * 持有结点并直接在其后插入或删除，而不需要再次查找，适用于“先找前继，再顺序扫描
+ * 后继”的访问模式。每一层都保存后向指针，因此删除任意结点或在任意结点后插入
+ * 只需要期望O(1)的指针修改，查找为期望O(log n)
+ */
+public class SkipList<T> {
+
+    static final int MAX_LEVEL = 32;
+
+    /**
+     * 跳表结点，next[i]、prev[i]分别为第i层的后继与前继，prev[i]为头结点时表示
+     * 该结点为第i层的第一个结点
+     */
+    public static final class Node<T> {
+        T value;
+        Node<T>[] next;
+        Node<T>[] prev;
+        boolean linked;
+
+        @SuppressWarnings("unchecked")
+        Node(T value, int level) {
+            this.value = value;
+            this.next = new Node[level];
+            this.prev = new Node[level];
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        //结点是否仍在跳表中
+        public boolean isLinked() {
+            return linked;
+        }
+    }
+
+    private final Node<T> head = new Node<T>(null, MAX_LEVEL);
+    private final Comparator<? super T> comparator;
+    private int level = 1;
+    private int size = 0;
+    private int seed = 0x2545F491;
+
+    public SkipList() {
+        this(null);
+    }
+
+    /**
+     * @param comparator 为null时使用元素自身的compareTo
+     */
+    public SkipList(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(T first, T second) {
+        if (comparator != null)
+            return comparator.compare(first, second);
+        return ((Comparable<? super T>) first).compareTo(second);
+    }
+
+    /**
+     * 查找最后一个小于key的结点，存在多个与key相等的结点时，返回的是它们之前的结点，
+     * 与{@link AlgUtils#findPreOfList}的语义一致
+     * @param key 目标key
+     * @return 前继结点，不存在时返回null
+     */
+    public Node<T> findPre(T key) {
+        Node<T> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i].value, key) < 0)
+                x = x.next[i];
+        }
+        return x == head ? null : x;
+    }
+
+    /**
+     * 从finger开始向两侧查找最后一个小于key的结点，查找代价只与finger和目标之间的距离有关。
+     * finger小于key时向后走，否则沿prev向前走，都在走过的距离内逐层爬升后再下降。
+     * 适用于key集中在上一次位置附近的一连串查找，finger为null或已被删除时退化为{@link #findPre}
+     * @param finger 上一次查找或插入的结点
+     * @param key    目标key
+     * @return 前继结点，不存在时返回null
+     */
+    public Node<T> findPreFrom(Node<T> finger, T key) {
+        if (finger == null || !finger.linked)
+            return findPre(key);
+        Node<T> x = finger;
+        int top = x.next.length - 1;
+        if (compare(x.value, key) >= 0) {
+            //沿着当前结点的最高层向前走，直到前一个结点小于key
+            while (x.prev[top] != head && compare(x.prev[top].value, key) >= 0) {
+                x = x.prev[top];
+                top = x.next.length - 1;
+            }
+            //前一个结点可能是头结点，它在第top层的后继就是当前结点，从这里下降即可
+            x = x.prev[top];
+        } else {
+            //沿着当前结点的最高层向后走，遇到更高的结点就继续爬升
+            while (x.next[top] != null && compare(x.next[top].value, key) < 0) {
+                x = x.next[top];
+                top = x.next.length - 1;
+            }
+            top--;
+        }
+        for (int i = top; i >= 0; i--) {
+            while (x.next[i] != null && compare(x.next[i].value, key) < 0)
+                x = x.next[i];
+        }
+        return x == head ? null : x;
+    }
+
+    public Node<T> first() {
+        return head.next[0];
+    }
+
+    public Node<T> last() {
+        Node<T> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null)
+                x = x.next[i];
+        }
+        return x == head ? null : x;
+    }
+
+    /**
+     * @param node 为null时返回第一个结点
+     */
+    public Node<T> next(Node<T> node) {
+        return node == null ? head.next[0] : node.next[0];
+    }
+
+    public Node<T> prev(Node<T> node) {
+        Node<T> pre = node.prev[0];
+        return pre == head ? null : pre;
+    }
+
+    /**
+     * 在pre之后插入新结点，调用方需保证插入后依然有序
+     * @param pre   前继结点，为null时插入到表头
+     * @param value 插入值
+     * @return 新结点
+     */
+    public Node<T> insertAfter(Node<T> pre, T value) {
+        Node<T> node = new Node<T>(value, randomLevel());
+        int nodeLevel = node.next.length;
+        if (nodeLevel > level)
+            level = nodeLevel;
+        Node<T> x = pre == null ? head : pre;
+        for (int i = 0; i < nodeLevel; i++) {
+            //沿着下一层往回走，直到找到高度足够的结点
+            while (x.next.length <= i)
+                x = x.prev[i - 1];
+            Node<T> succ = x.next[i];
+            node.next[i] = succ;
+            node.prev[i] = x;
+            if (succ != null)
+                succ.prev[i] = node;
+            x.next[i] = node;
+        }
+        node.linked = true;
+        size++;
+        return node;
+    }
+
+    /**
+     * 删除结点，结点已被删除时直接返回
+     * @param node 要删除的结点
+     */
+    public void remove(Node<T> node) {
+        if (!node.linked)
+            return;
+        for (int i = 0; i < node.next.length; i++) {
+            Node<T> pre = node.prev[i];
+            Node<T> succ = node.next[i];
+            pre.next[i] = succ;
+            if (succ != null)
+                succ.prev[i] = pre;
+            node.next[i] = null;
+            node.prev[i] = null;
+        }
+        node.linked = false;
+        size--;
+        while (level > 1 && head.next[level - 1] == null)
+            level--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    //每层晋升概率为1/4
+    private int randomLevel() {
+        int x = seed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        seed = x;
+        int nodeLevel = 1;
+        while ((x & 3) == 0 && nodeLevel < MAX_LEVEL) {
+            nodeLevel++;
+            x >>>= 2;
+        }
+        return nodeLevel;
+    }
+
+}
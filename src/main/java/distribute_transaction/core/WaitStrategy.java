@@ -0,0 +1,23 @@
+package distribute_transaction.core;
+
+/**
+ * 消费线程没有任务可处理时的等待策略，在延迟与CPU占用之间取舍：
+ * {@link BusySpinWaitStrategy}延迟最低但独占一个核，{@link YieldingWaitStrategy}
+ * 在自旋后让出CPU，{@link ParkingWaitStrategy}逐步退避到休眠，
+ * {@link BlockingWaitStrategy}在条件变量上阻塞直到生产者通知
+ */
+public interface WaitStrategy {
+
+    /**
+     * 消费线程本轮没有处理到任何任务时调用
+     * @param idleCount 连续空闲的轮数，处理到任务后调用方应将其清零
+     * @return 新的连续空闲轮数
+     */
+    int idle(int idleCount);
+
+    /**
+     * 生产者放入新任务后调用，唤醒阻塞中的消费线程
+     */
+    void signalAll();
+
+}
@@ -0,0 +1,29 @@
+package distribute_transaction.core;
+
+/**
+ * 先自旋一定轮数，之后每轮调用Thread.yield()让出CPU
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+    private final int spinTries;
+
+    public YieldingWaitStrategy() {
+        this(100);
+    }
+
+    public YieldingWaitStrategy(int spinTries) {
+        this.spinTries = spinTries;
+    }
+
+    @Override
+    public int idle(int idleCount) {
+        if (idleCount >= spinTries)
+            Thread.yield();
+        return idleCount == Integer.MAX_VALUE ? idleCount : idleCount + 1;
+    }
+
+    @Override
+    public void signalAll() {
+    }
+
+}
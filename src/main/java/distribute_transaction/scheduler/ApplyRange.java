@@ -1,8 +1,6 @@
 package distribute_transaction.scheduler;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
+import distribute_transaction.core.ObjectPool;
 
 import static distribute_transaction.scheduler.Lock.S;
 import static distribute_transaction.scheduler.Lock.X;
@@ -13,36 +11,83 @@ import static distribute_transaction.scheduler.Lock.X;
  */
 class ApplyRange<T extends Comparable<T>> extends Range<T> implements Comparable<ApplyRange<T>> {
 
-    //如未获取所有资源，需等待waitingSet中的ApplyRange释放其资源
-    private HashSet<ApplyRange<T>> waitingSet = new HashSet<>();
-    //当与该范围相关事务执行完成后，通知后续的范围执行
-    private List<ApplyRange<T>> notifyList = new ArrayList<>();
+    /**
+     * 等待关系只记录计数与侵入式链表，不再为每个范围分配集合：
+     * 当前范围只记录尚未释放的冲突根结点数，被等待的根结点在链表中记录等待它的后续范围，
+     * 链表结点由所在表的edgePool复用
+     */
+    //尚未释放资源的冲突根结点数，如未获取所有资源，需等待这些根结点释放
+    private int waitingCount = 0;
+    //当与该范围相关事务执行完成后，按登记顺序通知后续的范围执行
+    private WaitEdge notifyHead;
+    private WaitEdge notifyTail;
+    /**
+     * 最近一次在该根结点上登记等待的范围及其代数。新范围的所有登记连续发生，
+     * 据此保证同一范围经由多个子结点只登记一次；范围被复用后代数不同，不会被误认为已登记
+     */
+    private ApplyRange<T> lastApplicant;
+    private int lastApplicantGeneration;
+    //等待关系结点的对象池，属于范围所在的表
+    private final WaitEdge.Pool edgePool;
     //根结点的标志
     private boolean isRoot = true;
-    //父结点
+    //是否已经通知事务获取了该范围，同一前继可能经由多个子结点被等待，通知只能发生一次
+    private boolean invoked = false;
+    //父结点，总是指向根结点
     private ApplyRange<T> parent = null;
 
     /**
-     * 只有在共享模式下才会使用该数据
+     * 范围对象池，为null时不复用。根结点失活，并且它与它的子结点都已经移出加锁范围后，
+     * 不会再被任何对象引用，此时归还到池中；子结点移出加锁范围时即可归还
      */
-    class SharedInfo{
-        //已获取资源的上一读结点
-        private HashSet<ApplyRange<T>> acquiredReadRanges = new HashSet<>();
-        //未获得资源的上一读结点
-        private HashSet<ApplyRange<T>> notAcquiredReadRanges = new HashSet<>();
-        //在该结点上等待的读请求
-        private List<ApplyRange<T>> waitingRanges = new ArrayList<>();
+    private final ObjectPool<ApplyRange<T>> rangePool;
+    //加锁范围中仍然保存着的、属于该根结点的结点数，包括根结点自己与子结点
+    private int references = 0;
+    //每次复用时递增
+    private int generation = 0;
 
-    }
-    //在lockMode==S情况下会初始化
-    private SharedInfo sharedInfo;
+    /**
+     * 共享组：连续到达、边界相同的读请求不再各自占据加锁范围，而是加入最近的那个读根结点，
+     * 与它同时获得资源，组内所有读请求都释放后根结点才释放。
+     * group为成员所在组的根结点，成员不在加锁范围中；groupReaders为根结点上尚未释放的成员数，
+     * 尚未获得资源的成员以groupNext串在根结点的groupWaitHead上，根结点获得资源时一并通知
+     */
+    private ApplyRange<T> group;
+    private int groupReaders = 0;
+    private ApplyRange<T> groupWaitHead;
+    private ApplyRange<T> groupWaitTail;
+    private ApplyRange<T> groupNext;
+
+    //整型表中左右边界的原始值，由{@link PrimitiveTableResource}设置，比较时无需拆箱
+    long leftKey;
+    long rightKey;
+    //进入加锁范围时在冲突预过滤器中计数的桶号区间，见{@link ConflictFilter}
+    long firstBucket;
+    long lastBucket;
+
+    /**
+     * 以下只有在共享模式下才会使用
+     */
+    //已获取资源、尚未释放的上一读结点数
+    private int acquiredReadCount = 0;
+    //未获得资源的上一读结点数
+    private int notAcquiredReadCount = 0;
+    //在该结点上等待其获得资源的读请求
+    private WaitEdge sharedWaitHead;
+    private WaitEdge sharedWaitTail;
 
     //包内使用
-    ApplyRange(Range<T> range){
+    ApplyRange(Range<T> range, WaitEdge.Pool edgePool){
+        this(range, edgePool, null);
+    }
+
+    ApplyRange(Range<T> range, WaitEdge.Pool edgePool, ObjectPool<ApplyRange<T>> rangePool){
         super(range.transaction,range.left,range.right,range.lockModel);
-        if(lockModel==S){
-            this.sharedInfo = new SharedInfo();
-        }
+        this.leftInclusive = range.leftInclusive;
+        this.rightInclusive = range.rightInclusive;
+        this.edgePool = edgePool;
+        this.rangePool = rangePool;
+        this.references = 1;
     }
 
     //只有内部创建子结点时才会使用，子结点只是用于在TableResource中占据资源用
@@ -50,6 +95,81 @@ class ApplyRange<T extends Comparable<T>> extends Range<T> implements Comparable
         super(null,left,right,parent.lockModel);
         this.isRoot = false;
         this.parent = parent;
+        this.edgePool = parent.edgePool;
+        this.rangePool = parent.rangePool;
+    }
+
+    /**
+     * 从对象池中取出范围，池为空时新建
+     */
+    static <T extends Comparable<T>> ApplyRange<T> obtain(Range<T> range, WaitEdge.Pool edgePool,
+                                                          ObjectPool<ApplyRange<T>> rangePool){
+        ApplyRange<T> applyRange = rangePool.obtain();
+        if(applyRange==null)
+            return new ApplyRange<T>(range, edgePool, rangePool);
+        applyRange.resetState(range.transaction, range.left, range.right, range.lockModel);
+        applyRange.leftInclusive = range.leftInclusive;
+        applyRange.rightInclusive = range.rightInclusive;
+        applyRange.references = 1;
+        return applyRange;
+    }
+
+    //复用前恢复到新建时的状态
+    private void resetState(Transaction transaction, T left, T right, Lock lockModel){
+        generation++;
+        this.transaction = transaction;
+        this.left = left;
+        this.right = right;
+        this.lockModel = lockModel;
+        this.partition = 0;
+        this.tableLockMode = null;
+        this.lockTable = null;
+        this.nextAcquired = null;
+        this.isRoot = true;
+        this.parent = null;
+        this.invoked = false;
+        this.waitingCount = 0;
+        this.acquiredReadCount = 0;
+        this.notAcquiredReadCount = 0;
+        this.notifyHead = null;
+        this.notifyTail = null;
+        this.sharedWaitHead = null;
+        this.sharedWaitTail = null;
+        this.lastApplicant = null;
+        this.group = null;
+        this.groupReaders = 0;
+        this.groupWaitHead = null;
+        this.groupWaitTail = null;
+        this.groupNext = null;
+        this.references = 0;
+        this.leftKey = 0;
+        this.rightKey = 0;
+    }
+
+    /**
+     * 结点被移出加锁范围，不再放回。子结点直接归还，根结点在自己失活并且所有结点都被移出后归还
+     */
+    void dropped(){
+        if(rangePool==null)
+            return;
+        ApplyRange<T> root = isRoot ? this : parent;
+        if(!isRoot)
+            recycle();
+        if(--root.references==0&&root.shouldRelease())
+            root.recycle();
+    }
+
+    private void recycle(){
+        if(rangePool==null)
+            return;
+        //清除引用，避免池中的对象持有已完成的事务与边界
+        transaction = null;
+        left = null;
+        right = null;
+        parent = null;
+        lastApplicant = null;
+        group = null;
+        rangePool.recycle(this);
     }
 
     /**
@@ -68,12 +188,11 @@ class ApplyRange<T extends Comparable<T>> extends Range<T> implements Comparable
      * @param lastApplyRange 上一个在同一块资源申请的range
      */
     private void applyOnExclusiveMode(ApplyRange<T> lastApplyRange){
-        if(lastApplyRange.isRoot) {
-            waitingSet.add(lastApplyRange);
-            lastApplyRange.notifyList.add(this);
-        }else{
-            applyOnExclusiveMode(lastApplyRange.parent);
-        }
+        ApplyRange<T> root = lastApplyRange.root();
+        if(!root.registerApplicant(this))
+            return;
+        waitingCount++;
+        root.addNotify(this);
     }
 
     /**
@@ -81,26 +200,62 @@ class ApplyRange<T extends Comparable<T>> extends Range<T> implements Comparable
      * @param lastApplyRange    上一申请范围
      */
     private void applyOnSharedMode(ApplyRange<T> lastApplyRange){
-        if(lastApplyRange.lockModel==X)
+        if(lastApplyRange.lockModel==X) {
             applyOnExclusiveMode(lastApplyRange);
-        else if(lastApplyRange.isRoot){
-            applyOnSharedRange(lastApplyRange);
-            lastApplyRange.wasAppliedBySharedRange(this);
-        }else{
-            applyOnSharedMode(lastApplyRange.parent);
+            return;
         }
+        ApplyRange<T> root = lastApplyRange.root();
+        if(!root.registerApplicant(this))
+            return;
+        applyOnSharedRange(root);
+        root.wasAppliedBySharedRange(this);
+    }
+
+    private ApplyRange<T> root(){
+        return isRoot ? this : parent;
+    }
+
+    //记录在该根结点上登记的范围，已经登记过时返回false
+    private boolean registerApplicant(ApplyRange<T> applicant){
+        if(lastApplicant==applicant&&lastApplicantGeneration==applicant.generation)
+            return false;
+        lastApplicant = applicant;
+        lastApplicantGeneration = applicant.generation;
+        return true;
+    }
+
+    private void addNotify(ApplyRange<T> waiter){
+        WaitEdge edge = edgePool.obtain(waiter);
+        if(notifyTail==null)
+            notifyHead = edge;
+        else
+            notifyTail.next = edge;
+        notifyTail = edge;
     }
 
     /**
      * 把事务与资源封锁请求解除关系
      * @param transaction   事务
      */
+    @Override
     void unboundTransaction(Transaction transaction){
         if(this.transaction!=transaction)
             return;
+        if(lockTable!=null)
+            lockTable.release(this);
         this.transaction = null;
+        if(group!=null){
+            //成员不在加锁范围中，离开共享组后不再被引用
+            ApplyRange<T> root = group;
+            group = null;
+            root.readerLeft();
+            recycle();
+            return;
+        }
         if(shouldRelease()){
             notifyAllWaitingRanges();
+            if(references==0)
+                recycle();
         }
     }
 
@@ -115,8 +270,8 @@ class ApplyRange<T extends Comparable<T>> extends Range<T> implements Comparable
                 if (transaction == null)
                     return true;
             } else {
-                //对于共享模式，必须等待前面的所有共享集合释放后才能释放
-                if (transaction == null && sharedInfo.acquiredReadRanges.isEmpty())
+                //对于共享模式，必须等待前面的所有共享集合以及组内的所有成员释放后才能释放
+                if (transaction == null && acquiredReadCount == 0 && groupReaders == 0)
                     return true;
             }
             return false;
@@ -128,10 +283,17 @@ class ApplyRange<T extends Comparable<T>> extends Range<T> implements Comparable
     /**
      * 通知在其后申请同一资源的ApplyRange，该资源已经可以获取
      */
+    @SuppressWarnings("unchecked")
     private void notifyAllWaitingRanges() {
-        while (!notifyList.isEmpty()){
-            ApplyRange waitingRange = notifyList.remove(0);
+        WaitEdge edge = notifyHead;
+        notifyHead = null;
+        notifyTail = null;
+        while (edge!=null){
+            WaitEdge next = edge.next;
+            ApplyRange<T> waitingRange = (ApplyRange<T>) edge.waiter;
+            edgePool.recycle(edge);
             waitingRange.acquireRange(this);
+            edge = next;
         }
     }
 
@@ -142,32 +304,81 @@ class ApplyRange<T extends Comparable<T>> extends Range<T> implements Comparable
     private void acquireRange(ApplyRange<T> parentRange) {
         if(lockModel==S){
             if(parentRange.lockModel==S){
-                sharedInfo.acquiredReadRanges.remove(parentRange);
+                acquiredReadCount--;
                 if(shouldRelease()){
                     notifyAllWaitingRanges();
+                    if(references==0)
+                        recycle();
                 }
             }else{
-                waitingSet.remove(parentRange);
-                if(waitingSet.isEmpty()&&sharedInfo.notAcquiredReadRanges.isEmpty()){
+                waitingCount--;
+                if(waitingCount==0&&notAcquiredReadCount==0){
                     invokeTransaction();
                     notifyAllWaitingSharedRange();
                 }
             }
         }else{
-            waitingSet.remove(parentRange);
-            if(waitingSet.isEmpty())
+            waitingCount--;
+            if(waitingCount==0)
                 invokeTransaction();
         }
     }
 
-    //通知所有事务，其已经获取了该范围的资源
+    //通知所有事务，其已经获取了该范围的资源，共享组的成员与根结点一起获得资源
     private void invokeTransaction() {
+        if(invoked)
+            return;
+        invoked = true;
         ((TransactionImpl)transaction).acquireRange(this);
+        ApplyRange<T> member = groupWaitHead;
+        groupWaitHead = null;
+        groupWaitTail = null;
+        while (member!=null){
+            ApplyRange<T> next = member.groupNext;
+            member.groupNext = null;
+            member.invokeTransaction();
+            member = next;
+        }
+    }
+
+    /**
+     * 根结点是否可以接纳边界相同的新读请求：只有还没有其他范围在它上面等待时，
+     * 推迟它的释放才不会影响任何先到的请求。调用方负责比较边界
+     */
+    boolean acceptsSharedReaders(){
+        return isRoot&&lockModel==S&&notifyHead==null&&!shouldRelease();
+    }
+
+    /**
+     * 作为成员加入共享组，根结点已获得资源时成员立即获得，否则在根结点获得资源时一起获得
+     * @param root  边界相同的读根结点，见{@link #acceptsSharedReaders()}
+     */
+    void joinSharedGroup(ApplyRange<T> root){
+        group = root;
+        references = 0;
+        root.groupReaders++;
+        if(root.hasAcquiredAllResource())
+            return;
+        if(root.groupWaitTail==null)
+            root.groupWaitHead = this;
+        else
+            root.groupWaitTail.groupNext = this;
+        root.groupWaitTail = this;
+    }
+
+    //共享组的一个成员释放
+    private void readerLeft(){
+        groupReaders--;
+        if(shouldRelease()){
+            notifyAllWaitingRanges();
+            if(references==0)
+                recycle();
+        }
     }
 
     @Override
     public int compareTo(ApplyRange<T> o) {
-        return left.compareTo(o.left);
+        return compareBound(left, leftSide(), o.left, o.leftSide());
     }
 
     @Override
@@ -178,52 +389,82 @@ class ApplyRange<T extends Comparable<T>> extends Range<T> implements Comparable
             return false;
         }
         ApplyRange<T> compareObj = (ApplyRange<T>) obj;
-        if(compareObj.lockModel.equals(lockModel)&&compareObj.left.equals(left)
-                &&compareObj.right.equals(right)&&isRoot==compareObj.isRoot){
+        if(compareObj.lockModel.equals(lockModel)&&sameBounds(compareObj)&&isRoot==compareObj.isRoot){
             return true;
         }
         return false;
     }
 
     /**
-     * 判断当前的applyRange是否在range里面
-     * @param range
-     * @return
+     * 将右边界收缩到range的左边界，range的左边界包含在range中，因此收缩后的右边界不包含它。
+     * 只在range的左边界大于当前范围的左边界时调用，range的左边界不会是无界的
      */
-    boolean isWithin(ApplyRange<T> range){
-        return range.left.compareTo(left)<=0&&range.right.compareTo(right)>=0;
+    void setRightToLeftOf(ApplyRange<T> range){
+        this.right = range.left;
+        this.rightInclusive = !range.leftInclusive;
+        this.rightKey = range.leftKey;
+    }
+
+    //将左边界收缩到range的右边界，range的右边界小于当前范围的右边界，不会是无界的
+    void setLeftToRightOf(ApplyRange<T> range){
+        this.left = range.right;
+        this.leftInclusive = !range.rightInclusive;
+        this.leftKey = range.rightKey;
     }
 
-    //创建子结点
-    ApplyRange<T> newChildRange(T left,T right){
-        return new ApplyRange<T>(left,right,this);
+    /**
+     * 创建子结点，子结点从splitRange的右边界开始，到当前范围的右边界为止
+     * @param splitRange    落在当前范围内部的申请范围
+     */
+    ApplyRange<T> newChildRange(ApplyRange<T> splitRange){
+        ApplyRange<T> root = root();
+        ApplyRange<T> childRange = rangePool==null ? null : rangePool.obtain();
+        if(childRange==null){
+            childRange = new ApplyRange<T>(splitRange.right,right,root);
+        }else{
+            childRange.resetState(null,splitRange.right,right,lockModel);
+            childRange.isRoot = false;
+            childRange.parent = root;
+        }
+        root.references++;
+        childRange.leftInclusive = !splitRange.rightInclusive;
+        childRange.rightInclusive = rightInclusive;
+        childRange.leftKey = splitRange.rightKey;
+        childRange.rightKey = rightKey;
+        return childRange;
     }
 
     /**
      * 当前范围的所申请资源是否已经全部得到
      */
     boolean hasAcquiredAllResource(){
+        if(group!=null)
+            return group.hasAcquiredAllResource();
         if(lockModel==X){
-            return waitingSet.isEmpty();
+            return waitingCount==0;
         }else{
-            return waitingSet.isEmpty()&&sharedInfo.notAcquiredReadRanges.isEmpty();
+            return waitingCount==0&&notAcquiredReadCount==0;
         }
     }
 
     //主动申请
     private void applyOnSharedRange(ApplyRange<T> applyRange){
-        if(applyRange.hasAcquiredAllResource()) {
-            sharedInfo.acquiredReadRanges.add(applyRange);
-        }
+        if(applyRange.hasAcquiredAllResource())
+            acquiredReadCount++;
         else
-            sharedInfo.notAcquiredReadRanges.add(applyRange);
+            notAcquiredReadCount++;
     }
 
     //被申请
     private void wasAppliedBySharedRange(ApplyRange<T> applyRange){
-        notifyList.add(applyRange);
+        addNotify(applyRange);
         if(!hasAcquiredAllResource()) {
-            sharedInfo.waitingRanges.add(applyRange);
+            WaitEdge edge = edgePool.obtain(applyRange);
+            if(sharedWaitTail==null)
+                sharedWaitHead = edge;
+            else
+                sharedWaitTail.next = edge;
+            sharedWaitTail = edge;
         }
     }
 
@@ -233,10 +474,15 @@ class ApplyRange<T extends Comparable<T>> extends Range<T> implements Comparable
     private void notifyAllWaitingSharedRange(){
         if(lockModel!=S)
             return;
-        List<ApplyRange<T>> waitingSharedRanges = sharedInfo.waitingRanges;
-        while (waitingSharedRanges.size()>0){
-            ApplyRange<T> waitingRange = waitingSharedRanges.remove(0);
+        WaitEdge edge = sharedWaitHead;
+        sharedWaitHead = null;
+        sharedWaitTail = null;
+        while (edge!=null){
+            WaitEdge next = edge.next;
+            ApplyRange<?> waitingRange = edge.waiter;
+            edgePool.recycle(edge);
             waitingRange.wasNotifyByWaitingReadRange(this);
+            edge = next;
         }
     }
 
@@ -247,9 +493,9 @@ class ApplyRange<T extends Comparable<T>> extends Range<T> implements Comparable
     private void wasNotifyByWaitingReadRange(ApplyRange notifyRange){
         if(lockModel!=S)
             return;
-        sharedInfo.notAcquiredReadRanges.remove(notifyRange);
-        sharedInfo.acquiredReadRanges.add(notifyRange);
-        if(waitingSet.isEmpty()&&sharedInfo.notAcquiredReadRanges.isEmpty()) {
+        notAcquiredReadCount--;
+        acquiredReadCount++;
+        if(waitingCount==0&&notAcquiredReadCount==0) {
             invokeTransaction();
             notifyAllWaitingSharedRange();
         }
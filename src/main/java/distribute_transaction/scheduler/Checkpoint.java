@@ -0,0 +1,123 @@
+package distribute_transaction.scheduler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 调度状态的检查点。调度是确定性的，某个epoch交给调度器之后，加锁范围、范围之间的等待关系
+ * 以及每个范围所属的事务完全由此时还没有完成的事务按原顺序决定，已完成的事务不再留下任何范围。
+ * 因此检查点只保存epoch编号与这些事务的id、请求原语和范围，恢复时按id顺序重新提交它们，
+ * 再重放{@link InputLog}中该epoch之后的部分，得到与崩溃前相同的授予顺序，
+ * 不需要重放整个日志，也不需要保存跳表与等待链表本身的结构。
+ * <p>
+ * 文件格式为4字节魔数、4字节长度、4字节CRC32，之后是epoch编号与{@link TransactionCodec}编码的事务。
+ * 先写入临时文件并刷盘，再原子地替换原检查点，崩溃时保留的总是一个完整的检查点
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x52534350;
+    private static final int HEADER_SIZE = 12;
+
+    //检查点之前最后一个交给调度器的epoch
+    private final long epoch;
+    //该epoch之后还没有完成的事务，按id排列
+    private final List<Transaction> transactions;
+
+    private Checkpoint(long epoch, List<Transaction> transactions) {
+        this.epoch = epoch;
+        this.transactions = transactions;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    /**
+     * 写入检查点，替换已有的检查点
+     * @param epoch         已经交给调度器的最后一个epoch
+     * @param transactions  此时还没有完成的事务，见{@link Scheduler#liveTransactions}
+     */
+    public static void write(String path, long epoch, List<? extends Transaction> transactions) throws IOException {
+        TransactionCodec codec = new TransactionCodec();
+        codec.putLong(epoch);
+        codec.putTransactions(transactions);
+        ByteBuffer payload = codec.flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.limit());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(payload.limit()).putInt((int) crc.getValue()).flip();
+
+        Path target = Paths.get(path);
+        Path temp = Paths.get(path + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining() || payload.hasRemaining())
+                channel.write(new ByteBuffer[]{header, payload});
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return 检查点不存在或不完整时返回null
+     */
+    public static Checkpoint load(String path) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(Paths.get(path));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC)
+            return null;
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length < 8 || length != bytes.length - HEADER_SIZE)
+            return null;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, length);
+        if ((int) crc.getValue() != checksum)
+            return null;
+        long epoch = buffer.getLong();
+        return new Checkpoint(epoch, TransactionCodec.readTransactions(buffer));
+    }
+
+    /**
+     * 重启时恢复调度状态：先将检查点中未完成的事务作为一批提交，再逐个epoch重放日志中检查点之后的部分，
+     * 每个epoch通过{@link Scheduler#scheduleAll}整批提交。没有检查点时重放整个日志
+     * @return 提交的事务数
+     */
+    public static long recover(String checkpointPath, String logPath, final Scheduler scheduler) throws IOException {
+        Checkpoint checkpoint = load(checkpointPath);
+        final long[] recovered = {0};
+        long fromEpoch = 0;
+        if (checkpoint != null) {
+            scheduler.scheduleAll(checkpoint.transactions);
+            recovered[0] = checkpoint.transactions.size();
+            fromEpoch = checkpoint.epoch + 1;
+        }
+        InputLog.replay(logPath, fromEpoch, new InputLog.Handler() {
+            @Override
+            public void onEpoch(long epoch, List<Transaction> transactions) {
+                scheduler.scheduleAll(transactions);
+                recovered[0] += transactions.size();
+            }
+        });
+        return recovered[0];
+    }
+
+}
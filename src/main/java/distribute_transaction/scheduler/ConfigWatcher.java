@@ -0,0 +1,92 @@
+package distribute_transaction.scheduler;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监视表配置文件，文件被修改或替换后调用{@link ResourceManager#reload}。
+ * 保存一次文件可能产生多个事件，收到事件后稍等片刻合并为一次加载。
+ * 配置有误时保留当前的表并打印错误，等待下一次修改
+ */
+class ConfigWatcher extends Thread {
+
+    //检查关闭标志的间隔
+    private static final long POLL_MILLIS = 200;
+    //合并同一次保存产生的事件
+    private static final long SETTLE_MILLIS = 50;
+
+    private final ResourceManager resourceManager;
+    private final Path directory;
+    private final Path fileName;
+    private final WatchService watchService;
+    private volatile boolean shutdown = true;
+
+    ConfigWatcher(ResourceManager resourceManager) throws IOException {
+        super("config-watcher");
+        setDaemon(true);
+        this.resourceManager = resourceManager;
+        Path configPath = Paths.get(resourceManager.getConfigPath()).toAbsolutePath();
+        this.directory = configPath.getParent();
+        this.fileName = configPath.getFileName();
+        this.watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    @Override
+    public void start() {
+        shutdown = false;
+        super.start();
+    }
+
+    void close() {
+        shutdown = true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!shutdown) {
+                WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null || !consume(key))
+                    continue;
+                //同一次保存的后续事件
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+                    consume(key);
+                try {
+                    resourceManager.reload();
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return 是否有配置文件的事件
+     */
+    private boolean consume(WatchKey key) {
+        boolean matched = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context()))
+                matched = true;
+        }
+        key.reset();
+        return matched;
+    }
+
+}
@@ -0,0 +1,79 @@
+package distribute_transaction.scheduler;
+
+/**
+ * 整型表的冲突预过滤器。key空间按bucketWidth切成桶，桶号再按buckets取模映射到计数数组，
+ * 每个计数为加锁范围中覆盖该位置的范围数，包括暂存在哈希表或桶中、不在跳表里的范围。
+ * <p>
+ * 范围进入加锁范围时按当时的边界递增所覆盖的计数，离开时按同样的桶递减，
+ * 之后边界收缩也不修改计数，因此计数只会多算不会少算：计数全为零时一定没有与之重叠的范围，
+ * 非零时可能只是取模冲突或范围已经收缩，交给跳表判断
+ */
+class ConflictFilter {
+
+    private final long bucketWidth;
+    private final int[] counts;
+
+    /**
+     * @param bucketWidth   每个桶覆盖的key数
+     * @param buckets       计数数组的大小
+     */
+    ConflictFilter(long bucketWidth, int buckets) {
+        if (bucketWidth <= 0 || buckets <= 0)
+            throw new IllegalArgumentException("bucketWidth and buckets should be positive, " + bucketWidth + ", " + buckets);
+        this.bucketWidth = bucketWidth;
+        this.counts = new int[buckets];
+    }
+
+    //key所在的桶号
+    long bucketOf(long key) {
+        return Math.floorDiv(key, bucketWidth);
+    }
+
+    //范围[leftKey, rightKey)的最后一个桶号，空范围只占左边界所在的桶
+    long lastBucketOf(long leftKey, long rightKey) {
+        return rightKey > leftKey ? bucketOf(rightKey - 1) : bucketOf(leftKey);
+    }
+
+    int indexOf(long bucket) {
+        return (int) Math.floorMod(bucket, (long) counts.length);
+    }
+
+    //桶号区间是否覆盖了所有计数，两端相距过远时差值可能溢出
+    boolean coversAll(long firstBucket, long lastBucket) {
+        long span = lastBucket - firstBucket;
+        return span < 0 || span >= counts.length - 1;
+    }
+
+    void add(long firstBucket, long lastBucket, int delta) {
+        if (coversAll(firstBucket, lastBucket)) {
+            for (int i = 0; i < counts.length; i++)
+                counts[i] += delta;
+            return;
+        }
+        for (long bucket = firstBucket; bucket <= lastBucket; bucket++)
+            counts[indexOf(bucket)] += delta;
+    }
+
+    /**
+     * 桶号区间内是否没有任何范围
+     */
+    boolean isEmpty(long firstBucket, long lastBucket) {
+        if (coversAll(firstBucket, lastBucket)) {
+            for (int count : counts) {
+                if (count != 0)
+                    return false;
+            }
+            return true;
+        }
+        for (long bucket = firstBucket; bucket <= lastBucket; bucket++) {
+            if (counts[indexOf(bucket)] != 0)
+                return false;
+        }
+        return true;
+    }
+
+    int buckets() {
+        return counts.length;
+    }
+
+}
@@ -0,0 +1,207 @@
+package distribute_transaction.scheduler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的输入日志。调度是确定性的，按顺序输入的事务完全决定了资源的授予顺序，
+ * 因此只需记录{@link Sequencer}交给调度器的每个epoch，重放日志即可重建调度状态。
+ * <p>
+ * 日志文件按段映射到内存，每个epoch为一条记录：4字节长度、4字节CRC32，之后是epoch编号、
+ * 事务数以及各事务的id、请求原语与范围。记录不跨段，剩余空间不足时从记录开始处映射新的段。
+ * 每条记录写入后调用一次{@link MappedByteBuffer#force}，整个epoch共用一次刷盘。
+ * 映射扩展的文件以0填充，长度为0、长度越界或校验失败的记录视为日志结尾，
+ * 崩溃时写了一半的记录因此被丢弃，打开已有日志时从该位置继续追加。
+ * <p>
+ * 事务的编码见{@link TransactionCodec}。写入非线程安全，由Sequencer线程调用
+ */
+public class InputLog implements Closeable {
+
+    /**
+     * 重放时按顺序接收每个epoch
+     */
+    public interface Handler {
+        void onEpoch(long epoch, List<Transaction> transactions);
+    }
+
+    //默认每段64MB
+    static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    private static final int HEADER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final int segmentSize;
+    //当前映射的段，segmentStart为其在文件中的位置
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    //下一条记录在文件中的位置
+    private long position;
+    //下一个epoch的编号
+    private long nextEpoch = 0;
+    //序列化一个epoch的缓冲区
+    private final TransactionCodec codec = new TransactionCodec();
+    private final CRC32 crc = new CRC32();
+
+    public InputLog(String path) throws IOException {
+        this(path, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * 打开或创建日志，已有日志时定位到最后一条完整记录之后
+     * @param segmentSize   每次映射的大小，单条记录更大时按记录大小映射
+     */
+    public InputLog(String path, int segmentSize) throws IOException {
+        if (segmentSize <= HEADER_SIZE)
+            throw new IllegalArgumentException("segment size should be larger than " + HEADER_SIZE + ", " + segmentSize);
+        this.segmentSize = segmentSize;
+        this.channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long[] lastEpoch = {-1};
+        this.position = scan(channel, segmentSize, 0, new Handler() {
+            @Override
+            public void onEpoch(long epoch, List<Transaction> transactions) {
+                lastEpoch[0] = epoch;
+            }
+        }, false);
+        this.nextEpoch = lastEpoch[0] + 1;
+    }
+
+    /**
+     * 下一个epoch的编号，为最后一条记录的编号加一，空日志为0
+     */
+    public long nextEpoch() {
+        return nextEpoch;
+    }
+
+    //日志有效部分的长度
+    public long size() {
+        return position;
+    }
+
+    /**
+     * 追加一个epoch并刷盘，返回时该epoch已经持久化
+     * @param epoch         epoch编号，不能小于{@link #nextEpoch()}
+     * @param transactions  按顺序排列的事务
+     */
+    public void append(long epoch, List<? extends Transaction> transactions) throws IOException {
+        if (epoch < nextEpoch)
+            throw new IllegalArgumentException("epoch " + epoch + " is before next epoch " + nextEpoch);
+        codec.clear();
+        codec.putLong(epoch);
+        codec.putTransactions(transactions);
+        ByteBuffer record = codec.flip();
+        crc.reset();
+        crc.update(record.array(), 0, record.limit());
+
+        int recordSize = HEADER_SIZE + record.limit();
+        if (segment == null || position + recordSize > segmentStart + segment.capacity()) {
+            segmentStart = position;
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(segmentSize, recordSize));
+        }
+        segment.position((int) (position - segmentStart));
+        segment.putInt(record.limit());
+        segment.putInt((int) crc.getValue());
+        segment.put(record);
+        segment.force();
+        position += recordSize;
+        nextEpoch = epoch + 1;
+    }
+
+    /**
+     * 截掉映射时扩展出的空白部分后关闭
+     */
+    @Override
+    public void close() throws IOException {
+        segment = null;
+        channel.truncate(position);
+        channel.close();
+    }
+
+    /**
+     * 按顺序重放日志中编号不小于fromEpoch的epoch
+     * @return 重放的epoch数
+     */
+    public static long replay(String path, long fromEpoch, final Handler handler) throws IOException {
+        final long[] replayed = {0};
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            scan(channel, DEFAULT_SEGMENT_SIZE, fromEpoch, new Handler() {
+                @Override
+                public void onEpoch(long epoch, List<Transaction> transactions) {
+                    handler.onEpoch(epoch, transactions);
+                    replayed[0]++;
+                }
+            }, true);
+        }
+        return replayed[0];
+    }
+
+    /**
+     * 按日志顺序通过{@link Scheduler#schedule}重新提交所有事务，不等待epoch的时间间隔
+     * @return 重放的事务数
+     */
+    public static long replay(String path, final Scheduler scheduler) throws IOException {
+        final long[] replayed = {0};
+        replay(path, 0, new Handler() {
+            @Override
+            public void onEpoch(long epoch, List<Transaction> transactions) {
+                for (int i = 0; i < transactions.size(); i++)
+                    scheduler.schedule(transactions.get(i));
+                replayed[0] += transactions.size();
+            }
+        });
+        return replayed[0];
+    }
+
+    /**
+     * 从头扫描日志中的完整记录
+     * @param decode    是否解码事务，为false时只解码epoch编号，传给handler的事务为null
+     * @return 最后一条完整记录之后的位置
+     */
+    private static long scan(FileChannel channel, int segmentSize, long fromEpoch, Handler handler,
+                             boolean decode) throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        long windowStart = 0;
+        MappedByteBuffer window = null;
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[0];
+        while (position + HEADER_SIZE <= fileSize) {
+            if (window == null || position + HEADER_SIZE > windowStart + window.capacity()) {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, fileSize - position));
+            }
+            window.position((int) (position - windowStart));
+            int length = window.getInt();
+            int checksum = window.getInt();
+            if (length <= 0 || position + HEADER_SIZE + length > fileSize)
+                break;
+            if (position + HEADER_SIZE + length > windowStart + window.capacity()) {
+                //记录在窗口之外，从记录开始处重新映射
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(Math.max(segmentSize, HEADER_SIZE + length), fileSize - position));
+                window.position(HEADER_SIZE);
+            }
+            if (payload.length < length)
+                payload = new byte[Math.max(length, payload.length << 1)];
+            window.get(payload, 0, length);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum)
+                break;
+            ByteBuffer buffer = ByteBuffer.wrap(payload, 0, length);
+            long epoch = buffer.getLong();
+            if (epoch >= fromEpoch)
+                handler.onEpoch(epoch, decode ? TransactionCodec.readTransactions(buffer) : null);
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+}
@@ -0,0 +1,17 @@
+package distribute_transaction.scheduler;
+
+/**
+ * Integer主键表的资源抽象
+ */
+class IntTableResource extends PrimitiveTableResource<Integer> {
+
+    IntTableResource(String tableName) {
+        super(tableName);
+    }
+
+    @Override
+    long toKey(Integer value) {
+        return value.intValue();
+    }
+
+}
@@ -1,14 +1,35 @@
 package distribute_transaction.scheduler;
 
 /**
- * 目前只支持两种锁级别，分别为：
- * S------>读锁
- * X------>写锁
- * 由于放弃了初始的B+树封锁策略，暂时没有用意向锁的必要
+ * 锁级别，分别为：
+ * IS----->意向读锁，读范围在所属的表上隐式持有
+ * IX----->意向写锁，写范围在所属的表上隐式持有
+ * S------>读锁，用于读范围或整表读
+ * SIX---->整表读，同时改写表中的部分范围
+ * X------>写锁，用于写范围或整表写
+ * 范围请求只使用S与X；整表请求使用S、SIX与X，见{@link Range#wholeTable}。
+ * 锁只分为表与范围两层，不再是初始B+树封锁策略中的多层结构
  * Created by swqsh on 2017/9/4.
  */
 enum Lock {
 
+    IS,
+    IX,
     S,
-    X
+    SIX,
+    X;
+
+    //表级锁的相容矩阵，下标为ordinal
+    private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false}
+    };
+
+    boolean compatibleWith(Lock other){
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
 }
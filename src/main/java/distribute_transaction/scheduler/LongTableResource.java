@@ -0,0 +1,17 @@
+package distribute_transaction.scheduler;
+
+/**
+ * Long主键表的资源抽象
+ */
+class LongTableResource extends PrimitiveTableResource<Long> {
+
+    LongTableResource(String tableName) {
+        super(tableName);
+    }
+
+    @Override
+    long toKey(Long value) {
+        return value.longValue();
+    }
+
+}
@@ -0,0 +1,308 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.LongObjectHashMap;
+import distribute_transaction.core.SkipList.Node;
+
+import java.util.Comparator;
+
+/**
+ * 整型主键表的资源抽象。申请时把边界转换为左闭右开的long保存在{@link ApplyRange}中，
+ * 开闭区间与无界的边界都在这一步统一，见{@link Range#leftKey}，
+ * 之后的查找、重叠判断与分裂都直接比较原始值，不再经过装箱类型的compareTo。
+ * <p>
+ * 只锁一个key的申请（右边界等于左边界加一）走单点快速路径：每个key最后一次单点申请的
+ * 范围保存在哈希表中，同一key上的后续单点申请直接在其上申请，期望O(1)。
+ * 哈希表中的范围在逻辑上仍属于加锁范围，只是暂时不在跳表中，因此保持不变式：
+ * 哈希表中存在某个key时，跳表中没有与该key重叠的范围。范围申请与哈希表中的key重叠时，
+ * 先把这些范围放回跳表再按原有算法申请，授予顺序与全部走跳表时完全一致。
+ * <p>
+ * 可以为表配置冲突预过滤器{@link ConflictFilter}，适用于稀疏、冲突少的表：
+ * 过滤器显示没有任何范围与新范围重叠时，新范围立即获得资源，不进入跳表。
+ * 单点范围直接放入哈希表；落在一个桶内的范围放入该桶的槽位，同样不在跳表中，
+ * 之后与该桶有关的申请先把槽位中的范围放回跳表，与哈希表的处理方式相同
+ */
+abstract class PrimitiveTableResource<T extends Comparable<T>> extends TableResource<T> {
+
+    //按左边界原始值排序
+    private static final Comparator<ApplyRange<?>> LEFT_KEY_ORDER = new Comparator<ApplyRange<?>>() {
+        @Override
+        public int compare(ApplyRange<?> first, ApplyRange<?> second) {
+            return Long.compare(first.leftKey, second.leftKey);
+        }
+    };
+
+    //每个key上最后一次单点申请的范围
+    private final LongObjectHashMap<ApplyRange<T>> points = new LongObjectHashMap<ApplyRange<T>>();
+    //哈希表达到该大小时清理失活的范围
+    private int sweepThreshold = MIN_SWEEP_THRESHOLD;
+    private static final int MIN_SWEEP_THRESHOLD = 1024;
+    private long[] keyBuffer;
+    //后台整理时待检查的key
+    private long[] compactKeys;
+    private int compactKeyCount;
+    private int compactKeyIndex;
+
+    //冲突预过滤器，为null时不使用
+    private ConflictFilter filter;
+    //过滤器每个计数位置上暂存的范围，只在过滤器启用时使用
+    private ApplyRange<T>[] isolated;
+    private int isolatedCount = 0;
+    //后台整理时下一个检查的槽位
+    private int compactSlot = 0;
+
+    PrimitiveTableResource(String tableName) {
+        super(tableName, LEFT_KEY_ORDER);
+    }
+
+    /**
+     * 启用冲突预过滤器，只能在申请任何范围之前调用
+     */
+    @SuppressWarnings("unchecked")
+    void setConflictFilter(ConflictFilter filter) {
+        this.filter = filter;
+        this.isolated = filter == null ? null : new ApplyRange[filter.buckets()];
+    }
+
+    ConflictFilter getConflictFilter() {
+        return filter;
+    }
+
+    //暂存在过滤器槽位中的范围数
+    int isolatedCount() {
+        return isolatedCount;
+    }
+
+    @Override
+    Node<ApplyRange<T>> apply(ApplyRange<T> newApplyRange, Node<ApplyRange<T>> hint) {
+        long left = newApplyRange.leftKey;
+        long right = newApplyRange.rightKey;
+        if (right > left && right - left == 1) {
+            applyForPoint(newApplyRange, hint);
+            return null;
+        }
+        if (filter != null) {
+            long firstBucket = filter.bucketOf(left);
+            long lastBucket = filter.lastBucketOf(left, right);
+            if (isolatedCount > 0)
+                relinkIsolated(firstBucket, lastBucket);
+            if (firstBucket == lastBucket && filter.isEmpty(firstBucket, lastBucket)) {
+                //没有任何范围与之重叠，新范围不需要等待，暂存在桶的槽位中
+                isolated[filter.indexOf(firstBucket)] = newApplyRange;
+                isolatedCount++;
+                rangeEntered(newApplyRange);
+                return null;
+            }
+        }
+        if (!points.isEmpty())
+            relinkPoints(left, right);
+        return super.apply(newApplyRange, hint);
+    }
+
+    private void applyForPoint(ApplyRange<T> newApplyRange, Node<ApplyRange<T>> hint) {
+        long key = newApplyRange.leftKey;
+        ApplyRange<T> last = points.get(key);
+        if (last == null && filter != null) {
+            long bucket = filter.bucketOf(key);
+            if (isolatedCount > 0)
+                relinkIsolated(bucket, bucket);
+            if (filter.isEmpty(bucket, bucket)) {
+                //没有任何范围与之重叠，不需要经过跳表
+                points.put(key, newApplyRange);
+                rangeEntered(newApplyRange);
+                if (points.size() >= sweepThreshold)
+                    sweep();
+                return;
+            }
+        }
+        if (last == null) {
+            //该key第一次单点申请，可能与跳表中的范围重叠，走一遍原有算法后再移入哈希表
+            //加入跳表中已有的共享组时，把组的根结点移入哈希表
+            Node<ApplyRange<T>> node = super.apply(newApplyRange, hint);
+            unlink(node);
+            points.put(key, node.getValue());
+            if (points.size() >= sweepThreshold)
+                sweep();
+            return;
+        }
+        if (newApplyRange.lockModel == Lock.S && joinSharedGroup(newApplyRange, last))
+            return;
+        if (!last.shouldRelease())
+            newApplyRange.applyOnLastApplyRange(last);
+        points.put(key, newApplyRange);
+        rangeEntered(newApplyRange);
+        dropRange(last);
+    }
+
+    /**
+     * 把桶号区间对应槽位中的范围放回跳表，失活的范围直接移除。
+     * 取模后不同区间的范围可能共用一个槽位，多放回的范围不影响结果
+     */
+    private void relinkIsolated(long firstBucket, long lastBucket) {
+        if (filter.coversAll(firstBucket, lastBucket)) {
+            for (int i = 0; i < isolated.length && isolatedCount > 0; i++)
+                relinkSlot(i);
+        } else {
+            for (long bucket = firstBucket; bucket <= lastBucket && isolatedCount > 0; bucket++)
+                relinkSlot(filter.indexOf(bucket));
+        }
+    }
+
+    private void relinkSlot(int index) {
+        ApplyRange<T> range = isolated[index];
+        if (range == null)
+            return;
+        isolated[index] = null;
+        isolatedCount--;
+        if (range.shouldRelease())
+            dropRange(range);
+        else
+            relink(range);
+    }
+
+    @Override
+    void rangeEntered(ApplyRange<T> range) {
+        if (filter == null)
+            return;
+        range.firstBucket = filter.bucketOf(range.leftKey);
+        range.lastBucket = filter.lastBucketOf(range.leftKey, range.rightKey);
+        filter.add(range.firstBucket, range.lastBucket, 1);
+    }
+
+    @Override
+    void rangeLeft(ApplyRange<T> range) {
+        if (filter != null)
+            filter.add(range.firstBucket, range.lastBucket, -1);
+    }
+
+    /**
+     * 把哈希表中与[left, right)重叠的范围放回跳表，左边界相同时即视为重叠，与跳表中的判断一致。
+     * 范围较窄时逐个key查找，否则遍历哈希表
+     */
+    private void relinkPoints(long left, long right) {
+        long width = right - left;
+        if (width <= 0 || width > points.size()) {
+            keyBuffer = points.keys(keyBuffer);
+            int size = points.size();
+            for (int i = 0; i < size; i++) {
+                long key = keyBuffer[i];
+                if (key == left || (key > left && key < right))
+                    relinkPoint(key);
+            }
+        } else {
+            for (long key = left; key < right; key++)
+                relinkPoint(key);
+        }
+    }
+
+    private void relinkPoint(long key) {
+        ApplyRange<T> last = points.remove(key);
+        //失活的范围在跳表中也会被直接移除，不需要放回
+        if (last == null)
+            return;
+        if (last.shouldRelease())
+            dropRange(last);
+        else
+            relink(last);
+    }
+
+    //移除哈希表中失活的范围，之后在哈希表大小翻倍时再次清理，均摊O(1)
+    private void sweep() {
+        keyBuffer = points.keys(keyBuffer);
+        int size = points.size();
+        for (int i = 0; i < size; i++) {
+            ApplyRange<T> last = points.get(keyBuffer[i]);
+            if (last.shouldRelease()) {
+                points.remove(keyBuffer[i]);
+                dropRange(last);
+            }
+        }
+        sweepThreshold = Math.max(MIN_SWEEP_THRESHOLD, points.size() * 2);
+    }
+
+    /**
+     * 跳表整理完成后继续清理哈希表中失活的单点范围，开始清理时记下所有key，之后分多次检查；
+     * 启用了过滤器时最后清理槽位中失活的范围。暂停后从暂停的阶段继续，不会重新扫描跳表
+     */
+    @Override
+    boolean compactStep(long deadline) {
+        if (compactKeys == null && compactSlot == 0) {
+            if (!super.compactStep(deadline))
+                return false;
+            compactKeys = points.keys(null);
+            compactKeyCount = points.size();
+            compactKeyIndex = 0;
+        }
+        if (compactKeys != null) {
+            while (compactKeyIndex < compactKeyCount) {
+                long key = compactKeys[compactKeyIndex++];
+                ApplyRange<T> last = points.get(key);
+                if (last != null && last.shouldRelease()) {
+                    points.remove(key);
+                    dropRange(last);
+                    compactReclaimed++;
+                }
+                if (compactKeyIndex % 256 == 0 && compactKeyIndex < compactKeyCount && System.nanoTime() - deadline >= 0)
+                    return false;
+            }
+            compactKeys = null;
+        }
+        if (isolatedCount > 0) {
+            //在这一阶段暂停时compactSlot总大于0，0表示尚未进入这一阶段
+            while (compactSlot < isolated.length) {
+                int index = compactSlot++;
+                ApplyRange<T> range = isolated[index];
+                if (range != null && range.shouldRelease()) {
+                    isolated[index] = null;
+                    isolatedCount--;
+                    dropRange(range);
+                    compactReclaimed++;
+                }
+                if (compactSlot % 256 == 0 && compactSlot < isolated.length && System.nanoTime() - deadline >= 0)
+                    return false;
+            }
+        }
+        compactSlot = 0;
+        return true;
+    }
+
+    @Override
+    int size() {
+        return super.size() + points.size() + isolatedCount;
+    }
+
+    /**
+     * 把边界值转换为long，转换必须保持原有的大小关系
+     */
+    abstract long toKey(T value);
+
+    @Override
+    ApplyRange<T> newApplyRange(Range<T> applyRange) {
+        ApplyRange<T> newApplyRange = super.newApplyRange(applyRange);
+        newApplyRange.leftKey = applyRange.left==null ? Long.MIN_VALUE
+                : Range.leftKey(toKey(applyRange.left), applyRange.leftInclusive);
+        newApplyRange.rightKey = applyRange.right==null ? Long.MAX_VALUE
+                : Range.rightKey(toKey(applyRange.right), applyRange.rightInclusive);
+        return newApplyRange;
+    }
+
+    @Override
+    final int compareLeft(ApplyRange<T> first, ApplyRange<T> second) {
+        return Long.compare(first.leftKey, second.leftKey);
+    }
+
+    @Override
+    final int compareRight(ApplyRange<T> first, ApplyRange<T> second) {
+        return Long.compare(first.rightKey, second.rightKey);
+    }
+
+    @Override
+    final int compareRightWithLeft(ApplyRange<T> first, ApplyRange<T> second) {
+        return Long.compare(first.rightKey, second.leftKey);
+    }
+
+    @Override
+    final int compareLeftWithRight(ApplyRange<T> first, ApplyRange<T> second) {
+        return Long.compare(first.leftKey, second.rightKey);
+    }
+
+}
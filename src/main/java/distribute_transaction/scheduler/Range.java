@@ -5,10 +5,17 @@ package distribute_transaction.scheduler;
  */
 public class Range<T extends Comparable<T>>{
 
-    //范围左边界、右边界
+    /**
+     * 范围左边界、右边界，为null时表示该侧无界。默认左闭右开，
+     * 可以通过leftInclusive与rightInclusive改为开区间或闭区间
+     */
     public T left;
 
     public T right;
+
+    public boolean leftInclusive = true;
+
+    public boolean rightInclusive = false;
     //当前请求范围所属事务
     public Transaction transaction;
     //请求范围的锁类型
@@ -17,6 +24,32 @@ public class Range<T extends Comparable<T>>{
     //要封锁的表名
     public String tableName;
 
+    //所属表的分配线程编号，事务按编号记录已获取的资源
+    int partition;
+    /**
+     * 请求在所属表上持有的表级锁：整表请求为其锁类型，范围请求为IS或IX，
+     * 事务已有同一张表的整表请求时为null。事务完成时由lockTable释放
+     */
+    Lock tableLockMode;
+    TableResource lockTable;
+    //VLL模式下请求在表的事务队列中的序号
+    long lockSequence;
+    //事务已获取资源链表中的下一个请求
+    Range nextAcquired;
+    //所属表在{@link TableCatalog}中的编号，小于0表示尚未查找
+    int tableId = -1;
+    //整表请求的标志，与两侧都无界的范围不同，整表请求只在表级锁上排队
+    private boolean wholeTable = false;
+
+    /**
+     * 边界在数轴上的位置：左闭与右开的边界位于值之前，左开与右闭的边界位于值之后，
+     * 范围包含左右边界之间的所有值
+     */
+    static final int NEGATIVE_INFINITY = -2;
+    static final int BEFORE = -1;
+    static final int AFTER = 1;
+    static final int POSITIVE_INFINITY = 2;
+
     public Range(T left, T right, Lock lockModel,String tableName){
         this.left = left;
         this.right = right;
@@ -39,6 +72,74 @@ public class Range<T extends Comparable<T>>{
         this.tableName = tableName;
     }
 
+    /**
+     * @param left              左边界，为null时无下界
+     * @param leftInclusive     是否包含左边界
+     * @param right             右边界，为null时无上界
+     * @param rightInclusive    是否包含右边界
+     */
+    public Range(T left, boolean leftInclusive, T right, boolean rightInclusive, Lock lockModel, String tableName){
+        this(left, right, lockModel, tableName);
+        this.leftInclusive = leftInclusive;
+        this.rightInclusive = rightInclusive;
+    }
+
+    /**
+     * 创建整表请求，整表请求没有边界，在表级锁上按O(1)授予或排队
+     * @param lockModel 只能为S、SIX或X：S为整表读，X为整表写，
+     *                  SIX为整表读，同时由同一事务中该表的X范围改写部分范围
+     */
+    public static <T extends Comparable<T>> Range<T> wholeTable(Lock lockModel, String tableName){
+        if(lockModel!=Lock.S&&lockModel!=Lock.SIX&&lockModel!=Lock.X)
+            throw new IllegalArgumentException("whole table lock should be S, SIX or X, "+lockModel);
+        Range<T> range = new Range<T>(null,null,lockModel,tableName);
+        range.wholeTable = true;
+        return range;
+    }
+
+    //是否为整表请求
+    public boolean isWholeTable(){
+        return wholeTable;
+    }
+
+    int leftSide(){
+        return left==null ? NEGATIVE_INFINITY : leftInclusive ? BEFORE : AFTER;
+    }
+
+    int rightSide(){
+        return right==null ? POSITIVE_INFINITY : rightInclusive ? AFTER : BEFORE;
+    }
+
+    /**
+     * 比较两个边界在数轴上的位置
+     * @param firstSide     first的位置，见{@link #leftSide()}与{@link #rightSide()}
+     */
+    static <T extends Comparable<T>> int compareBound(T first, int firstSide, T second, int secondSide){
+        if(firstSide==NEGATIVE_INFINITY||firstSide==POSITIVE_INFINITY
+                ||secondSide==NEGATIVE_INFINITY||secondSide==POSITIVE_INFINITY)
+            return firstSide==secondSide ? 0 : firstSide<secondSide ? -1 : 1;
+        int compare = first.compareTo(second);
+        return compare!=0 ? compare : Integer.compare(firstSide, secondSide);
+    }
+
+    /**
+     * 整型表把边界统一转换为左闭右开的key，开区间的左边界与闭区间的右边界加一，
+     * 无界的一侧分别取Long.MIN_VALUE与Long.MAX_VALUE。Long.MAX_VALUE本身因此无法被单独锁住
+     */
+    static long leftKey(long key, boolean inclusive){
+        return inclusive||key==Long.MAX_VALUE ? key : key+1;
+    }
+
+    static long rightKey(long key, boolean inclusive){
+        return !inclusive||key==Long.MAX_VALUE ? key : key+1;
+    }
+
+    //两个范围的边界是否相同
+    boolean sameBounds(Range<T> range){
+        return compareBound(left, leftSide(), range.left, range.leftSide())==0
+                &&compareBound(right, rightSide(), range.right, range.rightSide())==0;
+    }
+
     public String getTableName() {
         return tableName;
     }
@@ -50,12 +151,29 @@ public class Range<T extends Comparable<T>>{
         if(!(obj instanceof Range))
             return false;
         Range<T> range = (Range<T>) obj;
-        if(range.left.compareTo(left)==0&&range.right.compareTo(right)==0
+        if(range.wholeTable==wholeTable&&sameBounds(range)
                 &&range.tableName.equals(tableName)&&lockModel.equals(range.lockModel))
             return true;
         return false;
     }
 
+    /**
+     * 事务完成，释放该请求占有的资源。只有整表请求与VLL模式下请求本身会被事务持有，
+     * 其他模式下事务持有的是{@link ApplyRange}
+     * @param transaction   完成的事务
+     */
+    void unboundTransaction(Transaction transaction){
+        if(lockTable!=null&&this.transaction==transaction)
+            lockTable.release(this);
+    }
+
+    /**
+     * 预先设置所属表的编号，编号由{@link Scheduler#getTableId}取得，省去调度时按表名查找
+     */
+    public void setTableId(int tableId) {
+        this.tableId = tableId;
+    }
+
     public void setTransaction(Transaction transaction) {
         this.transaction = transaction;
     }
@@ -63,8 +181,8 @@ public class Range<T extends Comparable<T>>{
     @Override
     public String toString() {
         String res = transaction==null ? "transaction:null" : "transaction:"+transaction.getTransactionId();
-        res += ";   left:"+left;
-        res += ";   right:"+right;
+        res += ";   left:"+(left==null ? "-inf" : leftInclusive ? "["+left : "("+left);
+        res += ";   right:"+(right==null ? "+inf" : rightInclusive ? right+"]" : right+")");
         res += ";   lockModel:"+lockModel;
         return res;
     }
@@ -0,0 +1,140 @@
+package distribute_transaction.scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 申请资源之前规整同一事务的范围：同一张表上相互重叠或首尾相接的范围合并为一个，
+ * 读写混合时合并后的范围为写锁；合并后范围数仍超过表的升级阈值时，
+ * 升级为覆盖所有范围的一个范围。整表请求保持不变。
+ * <p>
+ * 合并只看边界在数轴上的位置，整型表中[1,4]与[5,9]之间没有空隙，但不会被合并。
+ * 规整后事务在每张表上的范围互不重叠，事务不会再在自己的范围上等待
+ */
+class RangeNormalizer {
+
+    //按左边界排序
+    @SuppressWarnings("unchecked")
+    private static final Comparator<Range> LEFT_ORDER = new Comparator<Range>() {
+        @Override
+        public int compare(Range first, Range second) {
+            return Range.compareBound(first.left, first.leftSide(), second.left, second.leftSide());
+        }
+    };
+
+    private RangeNormalizer() {
+    }
+
+    /**
+     * @param ranges            事务申请的范围
+     * @param catalog           表目录，用于查找范围所属的表及其升级阈值
+     * @return 规整后的范围，不需要规整时返回原列表。同一张表的范围按左边界排列，
+     *         表之间保持第一次出现的顺序，不存在的表上的范围原样排在最前面
+     */
+    @SuppressWarnings("unchecked")
+    static List<Range> normalize(List<Range> ranges, TableCatalog catalog) {
+        if (ranges == null || ranges.size() < 2 || !hasRepeatedTable(ranges, catalog))
+            return ranges;
+        //下标为表id，tableOrder记录表第一次出现的顺序
+        List<Range>[] rangesByTable = new List[catalog.size()];
+        int[] tableOrder = new int[ranges.size()];
+        int tableCount = 0;
+        List<Range> normalized = new ArrayList<Range>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            Range range = ranges.get(i);
+            if (range.tableId < 0) {
+                normalized.add(range);
+                continue;
+            }
+            List<Range> tableRanges = rangesByTable[range.tableId];
+            if (tableRanges == null) {
+                tableRanges = new ArrayList<Range>();
+                rangesByTable[range.tableId] = tableRanges;
+                tableOrder[tableCount++] = range.tableId;
+            }
+            tableRanges.add(range);
+        }
+        for (int i = 0; i < tableCount; i++) {
+            TableResource tableResource = catalog.get(tableOrder[i]);
+            normalizeTable(rangesByTable[tableOrder[i]], tableResource.escalationThreshold, normalized);
+        }
+        return normalized;
+    }
+
+    //查找每个范围所属的表，是否有两个范围属于同一张表，范围很少时逐对比较编号
+    private static boolean hasRepeatedTable(List<Range> ranges, TableCatalog catalog) {
+        boolean repeated = false;
+        for (int i = 0; i < ranges.size(); i++) {
+            Range range = ranges.get(i);
+            if (catalog.resolve(range) == null)
+                continue;
+            for (int j = 0; j < i && !repeated; j++) {
+                if (ranges.get(j).tableId == range.tableId)
+                    repeated = true;
+            }
+        }
+        return repeated;
+    }
+
+    /**
+     * 规整一张表上的范围，结果追加到normalized中
+     * @param threshold 升级阈值，合并后的范围数超过该值时升级，不大于0表示不升级
+     */
+    @SuppressWarnings("unchecked")
+    private static void normalizeTable(List<Range> tableRanges, int threshold, List<Range> normalized) {
+        if (tableRanges.size() == 1) {
+            normalized.add(tableRanges.get(0));
+            return;
+        }
+        List<Range> bounded = new ArrayList<Range>(tableRanges.size());
+        for (Range range : tableRanges) {
+            if (range.isWholeTable())
+                normalized.add(range);
+            else
+                bounded.add(range);
+        }
+        if (bounded.isEmpty())
+            return;
+        Collections.sort(bounded, LEFT_ORDER);
+
+        int start = normalized.size();
+        Range current = bounded.get(0);
+        for (int i = 1; i < bounded.size(); i++) {
+            Range next = bounded.get(i);
+            //当前范围的右边界不在下一范围的左边界之前，两者重叠或首尾相接
+            if (Range.compareBound(current.right, current.rightSide(), next.left, next.leftSide()) >= 0) {
+                current = merge(current, next);
+            } else {
+                normalized.add(current);
+                current = next;
+            }
+        }
+        normalized.add(current);
+
+        if (threshold > 0 && normalized.size() - start > threshold) {
+            Range escalated = normalized.get(start);
+            for (int i = normalized.size() - 1; i > start; i--)
+                escalated = merge(escalated, normalized.remove(i));
+            normalized.set(start, escalated);
+        }
+    }
+
+    /**
+     * 合并两个范围，first的左边界不在second之后。合并后的范围从first的左边界到两者中
+     * 靠右的右边界，其中有写锁时为写锁
+     */
+    @SuppressWarnings("unchecked")
+    private static Range merge(Range first, Range second) {
+        Range right = Range.compareBound(first.right, first.rightSide(), second.right, second.rightSide()) >= 0
+                ? first : second;
+        Lock lockModel = first.lockModel == Lock.X || second.lockModel == Lock.X ? Lock.X : Lock.S;
+        Range merged = new Range(first.left, first.leftInclusive, right.right, right.rightInclusive,
+                lockModel, first.getTableName());
+        merged.setTransaction(first.transaction);
+        merged.tableId = first.tableId;
+        return merged;
+    }
+
+}
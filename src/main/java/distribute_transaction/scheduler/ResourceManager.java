@@ -1,18 +1,24 @@
 package distribute_transaction.scheduler;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import distribute_transaction.core.ObjectPool;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
- * 负责资源的分配
+ * 负责资源的分配。表可以在运行时注册、移除或按配置文件重新加载，
+ * 变更在目录的副本上完成后整体替换，不暂停其他表的分配，见{@link TableCatalog}
  * Created by swqsh on 2017/9/4.
  */
 class ResourceManager {
@@ -21,50 +27,451 @@ class ResourceManager {
 
     /**
      * 参与分布式事务的每张表都应该拥有相应的表id以及逻辑资源表，
-     * 通过逻辑资源表来分配事务获取表的资源
+     * 通过逻辑资源表来分配事务获取表的资源。表id即表在目录中的编号，与注册顺序一致。
+     * 目录只整体替换，读取方每次操作只读取一次
      */
-    private Map<String,TableResource> tableResourceMap = new HashMap<String,TableResource>();
+    private volatile TableCatalog catalog = new TableCatalog();
+    //最近一次从配置文件加载的各表配置，重新加载时用于比较
+    private final Map<String,JsonObject> loadedConfigs = new HashMap<String,JsonObject>();
+    //分配线程数，为1时由调度线程直接分配
+    private volatile int partitionCount = 1;
+    //下一张没有指定allocator的表分到的分配线程
+    private int nextPartition = 0;
+    //冲突预过滤器默认的计数数组大小
+    private static final int DEFAULT_FILTER_BUCKETS = 4096;
 
+    /**
+     * @throws UncheckedIOException     配置文件无法读取
+     * @throws IllegalArgumentException 配置文件格式错误
+     */
     ResourceManager(String configPath) {
         this.configPath = configPath;
         try {
-            configParse();
+            reload();
         } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(-1);
+            throw new UncheckedIOException("failed to load table config "+configPath, e);
         }
     }
 
-    private void configParse() throws IOException {
+    String getConfigPath(){
+        return configPath;
+    }
+
+    /**
+     * 重新加载配置文件：注册新增的表，移除配置中删除的表，未改变的表保留加锁状态。
+     * 配置改变的表仍使用原来的资源表：升级阈值、VLL表的范围宽度上限与分配线程分组直接修改。
+     * 主键类型、锁模式与冲突预过滤器决定了资源表的结构，已注册的表不能改变：并行分配时，
+     * 已分发的事务还会向原来的资源表申请，替换后新旧两张表上的冲突请求会同时得到资源。
+     * 需要改变时先从配置中删除该表，等移除前的事务完成后再按新配置加入。
+     * 并行分配时，表也不能换到另一个分配线程。
+     * 所有变更作为一个新目录一次替换，配置文件有误或变更被拒绝时抛出异常，当前目录不变
+     * @return 是否有表发生变化
+     */
+    synchronized boolean reload() throws IOException {
         JsonParser jsonParser = new JsonParser();
         String configStr = new String(Files.readAllBytes(Paths.get(configPath)));
-        JsonArray jsonArray = jsonParser.parse(configStr).getAsJsonArray();
+        JsonArray jsonArray;
+        try {
+            jsonArray = jsonParser.parse(configStr).getAsJsonArray();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("malformed table config "+configPath, e);
+        }
+        TableCatalog current = catalog;
+        Map<String,JsonObject> configs = new HashMap<String,JsonObject>();
+        List<TableResource> added = new ArrayList<TableResource>();
+        //原地修改的表及其新配置，全部检查通过后才修改
+        List<TableResource> updated = new ArrayList<TableResource>();
+        List<JsonObject> updatedConfigs = new ArrayList<JsonObject>();
         for(int i=0;i<jsonArray.size();i++){
             JsonObject tableConfig = jsonArray.get(i).getAsJsonObject();
             String tableName = tableConfig.get("tableName").getAsString();
-            String typeName = tableConfig.get("type").getAsString();
-            TableResource tableResource = TableResourceFactory.newTableResource(tableName,typeName);
-            if(tableResource != null){
-                tableResourceMap.put(tableName,tableResource);
+            if(configs.put(tableName,tableConfig)!=null)
+                throw new IllegalArgumentException("duplicate table "+tableName+" in "+configPath);
+            JsonObject loaded = loadedConfigs.get(tableName);
+            if(tableConfig.equals(loaded))
+                continue;
+            TableResource loadedResource = loaded==null ? null : current.get(tableName);
+            if(loadedResource!=null){
+                if(!sameStructure(loaded, tableConfig))
+                    throw new IllegalArgumentException("can not change key type, lock mode or conflict filter of registered table "
+                            +tableName+", remove it and add it back after its transactions complete");
+                checkPartition(loadedResource, tableConfig);
+                checkEscalation(loadedResource, tableConfig);
+                checkRangeWidth(loadedResource, tableConfig);
+                updated.add(loadedResource);
+                updatedConfigs.add(tableConfig);
+                continue;
+            }
+            //未知类型的表按原有方式忽略
+            TableResource tableResource = newTableResource(tableConfig);
+            if(tableResource!=null)
+                added.add(tableResource);
+        }
+        TableCatalog next = current.copy();
+        boolean changed = !updated.isEmpty();
+        for(String tableName:loadedConfigs.keySet()){
+            if(!configs.containsKey(tableName)){
+                next.retire(tableName);
+                changed = true;
             }
         }
+        for(TableResource tableResource:added){
+            if(next.idOf(tableResource.getTableName())>=0)
+                throw new IllegalArgumentException("table "+tableResource.getTableName()+" is already registered");
+        }
+        for(int i=0;i<updated.size();i++)
+            applySettings(updated.get(i), updatedConfigs.get(i));
+        for(TableResource tableResource:added){
+            assignPartition(tableResource);
+            next.register(tableResource);
+            changed = true;
+        }
+        loadedConfigs.clear();
+        for(Map.Entry<String,JsonObject> entry:configs.entrySet()){
+            if(next.idOf(entry.getKey())>=0)
+                loadedConfigs.put(entry.getKey(),entry.getValue());
+        }
+        //原地修改的设置随目录的替换对调度线程可见
+        catalog = next;
+        return changed;
+    }
+
+    //决定资源表结构的配置项，已注册的表不能改变
+    private static final String[] STRUCTURAL_KEYS = {"type", "lockMode", "bucketWidth", "buckets"};
+
+    private static boolean sameStructure(JsonObject first, JsonObject second){
+        for(String key:STRUCTURAL_KEYS){
+            JsonElement value = first.get(key);
+            if(value==null ? second.has(key) : !value.equals(second.get(key)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 并行分配时表只由一个分配线程访问，不能在运行时换到另一个分配线程
+     */
+    private void checkPartition(TableResource tableResource, JsonObject tableConfig){
+        if(partitionCount<=1||!tableConfig.has("allocator"))
+            return;
+        int partition = tableConfig.get("allocator").getAsInt()%partitionCount;
+        if(partition!=tableResource.partition)
+            throw new IllegalArgumentException("table "+tableResource.getTableName()+" can not move from allocator "
+                    +tableResource.partition+" to "+partition+" while allocators are running");
+    }
+
+    //不改变资源表结构的配置项，未配置时恢复默认值，调用前应已通过checkEscalation与checkRangeWidth检查
+    private static void applySettings(TableResource tableResource, JsonObject tableConfig){
+        tableResource.allocatorGroup = tableConfig.has("allocator") ? tableConfig.get("allocator").getAsInt() : -1;
+        tableResource.escalationThreshold = tableConfig.has("escalateAbove") ? tableConfig.get("escalateAbove").getAsInt() : 0;
+        if(tableResource instanceof VllTableResource)
+            ((VllTableResource) tableResource).maxRangeWidth = tableConfig.has("maxRangeWidth")
+                    ? tableConfig.get("maxRangeWidth").getAsLong() : VllTableResource.DEFAULT_MAX_RANGE_WIDTH;
+    }
+
+    /**
+     * VLL表按key逐个加锁，升级后的范围会展开为稀疏key之间的每一个key，因此不支持升级，
+     * 需要锁住大范围时应使用整表请求
+     */
+    private static void checkEscalation(TableResource tableResource, JsonObject tableConfig){
+        if(tableResource instanceof VllTableResource&&tableConfig.has("escalateAbove")
+                &&tableConfig.get("escalateAbove").getAsInt()>0)
+            throw new IllegalArgumentException("escalateAbove is not supported in vll lock mode, table "
+                    +tableResource.getTableName());
+    }
+
+    /**
+     * maxRangeWidth限制VLL表的范围请求展开的key数，只用于VLL表，且必须为正数
+     */
+    private static void checkRangeWidth(TableResource tableResource, JsonObject tableConfig){
+        if(!tableConfig.has("maxRangeWidth"))
+            return;
+        if(!(tableResource instanceof VllTableResource))
+            throw new IllegalArgumentException("maxRangeWidth only applies to vll lock mode, table "
+                    +tableResource.getTableName());
+        if(tableConfig.get("maxRangeWidth").getAsLong()<=0)
+            throw new IllegalArgumentException("maxRangeWidth should be positive, table "+tableResource.getTableName());
+    }
+
+    /**
+     * 运行时注册一张表，配置格式与配置文件中的一项相同
+     * @return 表的编号
+     * @throws IllegalArgumentException 表已存在或配置有误
+     */
+    synchronized int register(JsonObject tableConfig){
+        TableResource tableResource = newTableResource(tableConfig);
+        if(tableResource==null)
+            throw new IllegalArgumentException("unknown key type "+tableConfig.get("type")+" of table "
+                    +tableConfig.get("tableName"));
+        TableCatalog next = catalog.copy();
+        assignPartition(tableResource);
+        int tableId = next.register(tableResource);
+        catalog = next;
+        return tableId;
+    }
+
+    /**
+     * 运行时移除一张表。之后对该表的申请不再加锁，已经申请的范围照常授予与释放；
+     * 同名的表重新注册后是新的资源表，与移除前仍在进行的事务之间不再排序
+     * @return 表不存在时返回false
+     */
+    synchronized boolean retire(String tableName){
+        if(catalog.idOf(tableName)<0)
+            return false;
+        TableCatalog next = catalog.copy();
+        next.retire(tableName);
+        loadedConfigs.remove(tableName);
+        catalog = next;
+        return true;
+    }
+
+    /**
+     * @return 类型不支持时返回null
+     */
+    private static TableResource newTableResource(JsonObject tableConfig){
+        String tableName = tableConfig.get("tableName").getAsString();
+        JsonElement type = tableConfig.get("type");
+        String lockMode = tableConfig.has("lockMode") ? tableConfig.get("lockMode").getAsString() : null;
+        TableResource tableResource;
+        if(type.isJsonArray()){
+            //多列组合主键
+            JsonArray columns = type.getAsJsonArray();
+            String[] typeNames = new String[columns.size()];
+            for(int j=0;j<typeNames.length;j++)
+                typeNames[j] = columns.get(j).getAsString();
+            tableResource = TableResourceFactory.newTableResource(tableName,typeNames,lockMode);
+        }else{
+            tableResource = TableResourceFactory.newTableResource(tableName,type.getAsString(),lockMode);
+        }
+        if(tableResource != null){
+            checkEscalation(tableResource, tableConfig);
+            checkRangeWidth(tableResource, tableConfig);
+            applySettings(tableResource, tableConfig);
+            if(tableConfig.has("bucketWidth"))
+                setConflictFilter(tableResource, tableConfig);
+        }
+        return tableResource;
+    }
+
+
+    /**
+     * 按配置为表启用冲突预过滤器，bucketWidth为每个桶覆盖的key数，buckets为计数数组大小，
+     * 只支持范围锁模式的Integer与Long表
+     */
+    private static void setConflictFilter(TableResource tableResource, JsonObject tableConfig){
+        if(!(tableResource instanceof PrimitiveTableResource))
+            throw new IllegalArgumentException("conflict filter only supports Integer and Long tables in range lock mode, table "
+                    +tableResource.getTableName());
+        long bucketWidth = tableConfig.get("bucketWidth").getAsLong();
+        int buckets = tableConfig.has("buckets") ? tableConfig.get("buckets").getAsInt() : DEFAULT_FILTER_BUCKETS;
+        ((PrimitiveTableResource) tableResource).setConflictFilter(new ConflictFilter(bucketWidth, buckets));
     }
 
+    /**
+     * 申请之前合并事务在同一张表上的范围，见{@link RangeNormalizer}
+     */
+    void normalize(TransactionImpl transaction, TableCatalog catalog){
+        List<Range> keyRanges = transaction.getApplyRanges();
+        List<Range> normalized = RangeNormalizer.normalize(keyRanges, catalog);
+        if(normalized!=keyRanges)
+            transaction.setApplyRanges(normalized);
+    }
 
     void schedule(TransactionImpl transaction){
+        TableCatalog catalog = this.catalog;
+        normalize(transaction, catalog);
         List<Range> keyRanges = transaction.getApplyRanges();
-        while (keyRanges.size()>0){
-            Range range = keyRanges.remove(0);
-            TableResource resource = tableResourceMap.get(range.getTableName());
-            if(resource!=null){
-                resource.applyFor(range);
+        if(keyRanges!=null) {
+            for (int i = 0; i < keyRanges.size(); i++) {
+                Range range = keyRanges.get(i);
+                TableResource resource = catalog.resolve(range);
+                if (resource != null) {
+                    resource.applyFor(range);
+                }
             }
         }
         transaction.firstAllocatedCompleted();
     }
 
+    /**
+     * 为一批事务申请资源，结果与按顺序逐个调用{@link #schedule}一致。先把各事务的范围按表
+     * 分组，每张表只做一次批量申请，全部申请完成后再按顺序通知各事务。
+     * 并行分配时向分发时查找到的表申请：目录可能在分发之后被替换，按分配线程自己看到的目录
+     * 重新查找会找到同名的新表，而新表可能属于另一个分配线程
+     * @param transactions  按序号排列的事务
+     * @param partition     只申请该分配线程负责的范围，小于0表示单线程分配，申请事务的全部范围
+     */
+    @SuppressWarnings("unchecked")
+    void scheduleBatch(List<TransactionImpl> transactions, int partition){
+        TableCatalog catalog = this.catalog;
+        //下标为表id，分发时的表可能来自更新的目录，编号超出时扩容
+        TableResource[] tables = new TableResource[catalog.size()];
+        List<Range>[] rangesByTable = new List[tables.length];
+        for(int i=0;i<transactions.size();i++){
+            TransactionImpl transaction = transactions.get(i);
+            List<Range> keyRanges;
+            List<TableResource> resources = null;
+            if(partition<0){
+                normalize(transaction, catalog);
+                keyRanges = transaction.getApplyRanges();
+            }else{
+                //并行分配时已经在分发前规整过
+                int index = transaction.indexOfPartition(partition);
+                keyRanges = transaction.partitionRanges[index];
+                resources = transaction.partitionResources[index];
+            }
+            if(keyRanges==null)
+                continue;
+            for(int j=0;j<keyRanges.size();j++){
+                Range range = keyRanges.get(j);
+                TableResource resource = resources==null ? catalog.resolve(range) : resources.get(j);
+                if(resource==null)
+                    continue;
+                int tableId = resource.tableId;
+                if(tableId>=tables.length){
+                    tables = Arrays.copyOf(tables, Math.max(tableId+1, tables.length<<1));
+                    rangesByTable = Arrays.copyOf(rangesByTable, tables.length);
+                }
+                List<Range> tableRanges = rangesByTable[tableId];
+                if(tableRanges==null){
+                    tableRanges = new ArrayList<Range>();
+                    rangesByTable[tableId] = tableRanges;
+                    tables[tableId] = resource;
+                }
+                tableRanges.add(range);
+            }
+        }
+        for(int tableId=0;tableId<rangesByTable.length;tableId++){
+            if(rangesByTable[tableId]!=null)
+                tables[tableId].applyForBatch(rangesByTable[tableId]);
+        }
+        for(int i=0;i<transactions.size();i++){
+            transactions.get(i).firstAllocatedCompleted();
+        }
+    }
+
+    /**
+     * 在时间预算内整理各表的加锁范围，每张表从上次未完成的位置继续
+     * @param budgetNanos   时间预算
+     * @param partition     只整理该分配线程负责的表，小于0表示单线程分配，整理全部表
+     * @return 回收的范围数
+     */
+    int compact(long budgetNanos, int partition){
+        long deadline = System.nanoTime()+budgetNanos;
+        int reclaimed = 0;
+        TableCatalog catalog = this.catalog;
+        for(int i=0;i<catalog.size();i++){
+            TableResource tableResource = catalog.get(i);
+            if(tableResource==null||partition>=0&&tableResource.partition!=partition)
+                continue;
+            reclaimed += tableResource.compact(deadline);
+        }
+        return reclaimed;
+    }
+
+    /**
+     * 目录中各表申请范围对象池的统计之和，移除的表不再计入。对象池由分配线程修改，
+     * 其他线程读到的值可能稍有滞后
+     * @return 依次为命中次数、未命中次数与取出后尚未归还的对象数
+     */
+    long[] rangePoolStats(){
+        long[] stats = new long[3];
+        TableCatalog catalog = this.catalog;
+        for(int i=0;i<catalog.size();i++){
+            TableResource tableResource = catalog.get(i);
+            if(tableResource==null)
+                continue;
+            ObjectPool rangePool = tableResource.getRangePool();
+            stats[0] += rangePool.hits();
+            stats[1] += rangePool.misses();
+            stats[2] += rangePool.outstanding();
+        }
+        return stats;
+    }
+
+    /**
+     * 把表划分到各分配线程，配置中指定了allocator的表按分组取模，其余表按配置顺序轮流分配
+     * @param partitionCount    分配线程数
+     */
+    synchronized void partition(int partitionCount){
+        this.partitionCount = partitionCount;
+        nextPartition = 0;
+        TableCatalog catalog = this.catalog;
+        for(int i=0;i<catalog.size();i++){
+            TableResource tableResource = catalog.get(i);
+            if(tableResource!=null)
+                assignPartition(tableResource);
+        }
+    }
+
+    //在表对分配线程可见之前确定其所属的分配线程
+    private void assignPartition(TableResource tableResource){
+        if(tableResource.allocatorGroup>=0)
+            tableResource.partition = tableResource.allocatorGroup%partitionCount;
+        else
+            tableResource.partition = (nextPartition++)%partitionCount;
+    }
+
+    /**
+     * 并行分配时，把事务的范围按分配线程分组后，连同查找到的表按顺序交给各分配线程申请。
+     * 只有调度线程调用，保证每个分配线程收到的事务顺序与全局顺序一致
+     * @param transaction   事务
+     * @param allocators    分配线程
+     */
+    @SuppressWarnings("unchecked")
+    void dispatch(TransactionImpl transaction, TableAllocator[] allocators){
+        List<Range>[] rangesByPartition = new List[partitionCount];
+        List<TableResource>[] resourcesByPartition = new List[partitionCount];
+        int involved = 0;
+        TableCatalog catalog = this.catalog;
+        normalize(transaction, catalog);
+        List<Range> keyRanges = transaction.getApplyRanges();
+        if(keyRanges!=null) {
+            for (int i = 0; i < keyRanges.size(); i++) {
+                Range range = keyRanges.get(i);
+                TableResource resource = catalog.resolve(range);
+                if (resource == null)
+                    continue;
+                if (rangesByPartition[resource.partition] == null) {
+                    rangesByPartition[resource.partition] = new ArrayList<Range>();
+                    resourcesByPartition[resource.partition] = new ArrayList<TableResource>();
+                    involved++;
+                }
+                rangesByPartition[resource.partition].add(range);
+                resourcesByPartition[resource.partition].add(resource);
+            }
+        }
+
+        int[] partitions = new int[involved];
+        List<Range>[] partitionRanges = new List[involved];
+        List<TableResource>[] partitionResources = new List[involved];
+        for(int partition=0,index=0;partition<partitionCount;partition++){
+            if(rangesByPartition[partition]!=null){
+                partitions[index] = partition;
+                partitionResources[index] = resourcesByPartition[partition];
+                partitionRanges[index++] = rangesByPartition[partition];
+            }
+        }
+        transaction.dispatchTo(partitionCount,partitions,partitionRanges,partitionResources);
+        for(int partition:partitions){
+            allocators[partition].allocate(transaction);
+        }
+        transaction.firstAllocatedCompleted();
+    }
+
+    int getPartitionCount(){
+        return partitionCount;
+    }
+
+    /**
+     * @return 表的编号，表不存在时返回-1
+     */
+    int getTableId(String tableName){
+        return catalog.idOf(tableName);
+    }
+
     TableResource getTableResource(String resourceName){
-        return tableResourceMap.get(resourceName);
+        return catalog.get(resourceName);
     }
 
 }
@@ -1,10 +1,22 @@
 package distribute_transaction.scheduler;
 
-import java.util.HashSet;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import distribute_transaction.core.ObjectPool;
+import distribute_transaction.core.ParkingWaitStrategy;
+import distribute_transaction.core.RingBuffer;
+import distribute_transaction.core.WaitStrategy;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 负责调度{@link Transaction}的执行顺序
@@ -12,20 +24,67 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class Scheduler extends Thread{
 
-    private final int unAllocatedSize = 500;
+    private final int unAllocatedSize = 512;
     private final int allocatedSize = 500;
-    private final int toExecutedSize = 500;
+    private final int toExecutedSize = 512;
+    private final int releaseSize = 4096;
+    private final int failedSize = 512;
+    //调度线程每轮最多分配的事务数
+    private final int allocateBatchSize = 64;
+    //每轮分配之后整理加锁范围的时间预算
+    private final long compactBudgetNanos = 20000;
+    //后台整理回收的范围总数
+    private final AtomicLong reclaimedRanges = new AtomicLong();
+    /**
+     * 已完成事务的对象池，只在单线程分配时使用：事务的分配与释放都在调度线程中进行，
+     * 释放完所有资源后即不再被引用。并行分配时事务由多个分配线程释放，不复用
+     */
+    private final ObjectPool<TransactionImpl> transactionPool = new ObjectPool<TransactionImpl>(1024);
 
+    /**
+     * 各阶段之间以预分配的环形缓冲区衔接：Sequencer -> 调度线程 -> 执行线程 -> 调度线程。
+     * 每个缓冲区只有一个消费线程，消费序号即为生产者的屏障
+     */
     //待调度事务队列
-    BlockingQueue<Transaction> unAllocatedTransactions;
+    RingBuffer<Transaction> unAllocatedTransactions;
     //事务已经申请了资源，但还没完全得到所有资源，需要等待的队列
-    HashSet<Transaction> allocatedTransactions;
+    Set<Transaction> allocatedTransactions;
     //成功获取到要执行所需的资源的事务队列
-    BlockingQueue<Transaction> toExecuteTransactions;
+    RingBuffer<Transaction> toExecuteTransactions;
     //运行失败或者调度失败的队列
-    private LinkedBlockingQueue<Transaction> failedTransactions;
+    private RingBuffer<Transaction> failedTransactions;
     //运行完毕，等待释放
-    BlockingQueue<Transaction> releaseTransactions;
+    RingBuffer<Transaction> releaseTransactions;
+    /**
+     * 执行队列已满时，分配线程把满足执行条件的事务暂存在各自的积压队列中，继续处理
+     * 释放与分配，在之后的循环中再转入执行队列，分配线程因此不会被执行线程阻塞
+     */
+    private final ThreadLocal<ArrayDeque<Transaction>> fireBacklog = new ThreadLocal<ArrayDeque<Transaction>>() {
+        @Override
+        protected ArrayDeque<Transaction> initialValue() {
+            return new ArrayDeque<Transaction>();
+        }
+    };
+    private final RingBuffer.Handler<Transaction> releaseHandler = new RingBuffer.Handler<Transaction>() {
+        @Override
+        public void onEvent(Transaction transaction) {
+            release((TransactionImpl) transaction);
+        }
+    };
+    //单线程分配时本轮取出的事务，整批按表申请
+    private final List<TransactionImpl> allocateBatch = new ArrayList<TransactionImpl>();
+    private final RingBuffer.Handler<Transaction> allocateHandler = new RingBuffer.Handler<Transaction>() {
+        @Override
+        public void onEvent(Transaction transaction) {
+            allocate(transaction);
+        }
+    };
+
+    /**
+     * 已提交但还没有释放资源的事务，按事务id排列，用于生成{@link Checkpoint}。
+     * 调用{@link #trackLiveTransactions}之后才记录，要求事务id按提交顺序递增，{@link Sequencer}分配的id满足该要求
+     */
+    private volatile ConcurrentSkipListMap<Long,Transaction> liveTransactions;
 
     //真正的调度实现由resourceManager来实现的
     private ResourceManager resourceManager;
@@ -33,10 +92,22 @@ public class Scheduler extends Thread{
     //执行线程池
     private TransactionExecutor transactionExecutor;
 
+    //分配线程数，为1时由调度线程直接分配资源，否则每个分配线程负责一组表
+    private int allocatorCount = 1;
+    private TableAllocator[] allocators;
+
+    //调度线程、分配线程以及执行线程在没有任务时的等待策略
+    private WaitStrategy waitStrategy = new ParkingWaitStrategy();
+
     private AtomicBoolean shutdown = new AtomicBoolean(true);
 
-    //ResourceManager的配置文件路径
-    private String configPath = "./src/main/resources/resources.json";
+    //ResourceManager的配置文件路径，可以通过系统属性scheduler.config指定
+    private String configPath = System.getProperty(CONFIG_PROPERTY, "./src/main/resources/resources.json");
+    static final String CONFIG_PROPERTY = "scheduler.config";
+    //监视配置文件的线程，为null时不监视
+    private ConfigWatcher configWatcher;
+    //保护configWatcher与liveTransactions的创建。调度器本身是线程，join使用其监视器，不在this上同步
+    private final Object stateLock = new Object();
 
     public Scheduler(){
         super("scheduler");
@@ -48,83 +119,316 @@ public class Scheduler extends Thread{
         resourceManager = new ResourceManager(configPath);
     }
 
+    /**
+     * @param configPath        ResourceManager的配置文件路径
+     * @param allocatorCount    分配线程数，大于1时各表的资源由独立的分配线程并行分配
+     */
+    public Scheduler(String configPath, int allocatorCount){
+        this(configPath);
+        this.allocatorCount = allocatorCount;
+    }
+
+    /**
+     * @param configPath        ResourceManager的配置文件路径
+     * @param allocatorCount    分配线程数，大于1时各表的资源由独立的分配线程并行分配
+     * @param waitStrategy      各线程空闲时的等待策略，延迟敏感的部署可使用忙等，
+     *                          共享主机可使用阻塞等待
+     */
+    public Scheduler(String configPath, int allocatorCount, WaitStrategy waitStrategy){
+        this(configPath, allocatorCount);
+        this.waitStrategy = waitStrategy;
+    }
+
     @Override
     public void start(){
         init();
         transactionExecutor.start();
+        if(allocators!=null){
+            for(TableAllocator allocator:allocators)
+                allocator.start();
+        }
         super.start();
     }
 
     public void close(){
         this.shutdown.set(true);
+        synchronized (stateLock){
+            if(configWatcher!=null)
+                configWatcher.close();
+        }
         transactionExecutor.close();
+        if(allocators!=null){
+            for(TableAllocator allocator:allocators)
+                allocator.close();
+        }
+        waitStrategy.signalAll();
     }
 
     private void init(){
-        unAllocatedTransactions = new ArrayBlockingQueue<Transaction>(unAllocatedSize);
-        allocatedTransactions = new HashSet<>();
-        toExecuteTransactions = new ArrayBlockingQueue<Transaction>(toExecutedSize);
-        failedTransactions = new LinkedBlockingQueue<Transaction>();
-        releaseTransactions = new LinkedBlockingQueue<Transaction>();
-        transactionExecutor = new TransactionExecutor(toExecuteTransactions,releaseTransactions);
+        unAllocatedTransactions = new RingBuffer<Transaction>(unAllocatedSize,waitStrategy);
+        allocatedTransactions = ConcurrentHashMap.newKeySet();
+        toExecuteTransactions = new RingBuffer<Transaction>(toExecutedSize,waitStrategy);
+        failedTransactions = new RingBuffer<Transaction>(failedSize,waitStrategy);
+        releaseTransactions = new RingBuffer<Transaction>(releaseSize,waitStrategy);
+        transactionExecutor = new TransactionExecutor(toExecuteTransactions,releaseTransactions,waitStrategy);
+        if(allocatorCount>1){
+            resourceManager.partition(allocatorCount);
+            allocators = new TableAllocator[allocatorCount];
+            for(int i=0;i<allocatorCount;i++)
+                allocators[i] = new TableAllocator(i,resourceManager,this,waitStrategy);
+        }
         shutdown.set(false);
     }
 
-    //Sequencer使用Scheduler的唯一接口
+    //提交单个事务，事务id由调用方保证有序；{@link Sequencer}按epoch整批调用{@link #scheduleAll}
     public void schedule(Transaction transaction){
-        try {
-            unAllocatedTransactions.put(transaction);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        ConcurrentSkipListMap<Long,Transaction> live = liveTransactions;
+        if(live!=null)
+            live.put(transaction.getTransactionId(),transaction);
+        unAllocatedTransactions.put(transaction);
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * 按集合的迭代顺序批量提交事务，整批只唤醒一次调度线程
+     * @param transactions  已经排好序的一批事务
+     */
+    public void scheduleAll(Collection<? extends Transaction> transactions){
+        if(transactions.isEmpty())
+            return;
+        ConcurrentSkipListMap<Long,Transaction> live = liveTransactions;
+        if(live!=null){
+            for(Transaction transaction:transactions)
+                live.put(transaction.getTransactionId(),transaction);
         }
+        unAllocatedTransactions.putAll(transactions);
+        waitStrategy.signalAll();
     }
 
     public void run(){
+        int idleCount = 0;
         while (!shutdown.get()) {
-            Transaction transactionToRelease;
-            while ((transactionToRelease=releaseTransactions.poll())!=null){
-                ((TransactionImpl) transactionToRelease).complete();
+            boolean busy = flushFiredTransactions();
+            while (releaseTransactions.drain(releaseHandler,releaseSize)>0){
+                busy = true;
             }
 
-            Transaction transactionToAllocate = null;
-            if(allocatedTransactions.size()<allocatedSize) {
-                transactionToAllocate = unAllocatedTransactions.poll();
+            if(allocatedTransactions.size()<allocatedSize
+                    &&unAllocatedTransactions.drain(allocateHandler,allocateBatchSize)>0) {
+                //并行分配时整批分发完成后才唤醒分配线程
+                if(allocators!=null) {
+                    waitStrategy.signalAll();
+                }else {
+                    resourceManager.scheduleBatch(allocateBatch,-1);
+                    allocateBatch.clear();
+                }
+                busy = true;
             }
+            //单线程分配时在两批之间整理加锁范围，并行分配时由各分配线程整理自己的表
+            if(allocators==null&&compact(-1)>0)
+                busy = true;
 
-            if(transactionToAllocate!=null) {
-                TransactionImpl newTransaction = new TransactionImpl(transactionToAllocate.getTransactionId(),
-                        transactionToAllocate.getApplyRanges(),transactionToAllocate.getRequestStr(),this);
-                resourceManager.schedule(newTransaction);
-            }
+            if(busy)
+                idleCount = 0;
+            else
+                idleCount = waitStrategy.idle(idleCount);
         }
     }
 
     /**
-     * 事务满足执行条件，如果再allocatedTransaction中存在事务实例，先将其去除然后添加到执行队列中
+     * 在时间预算内整理加锁范围
+     * @param partition 分配线程编号，小于0表示单线程分配
+     * @return 回收的范围数
+     */
+    int compact(int partition){
+        int reclaimed = resourceManager.compact(compactBudgetNanos,partition);
+        if(reclaimed>0)
+            reclaimedRanges.addAndGet(reclaimed);
+        return reclaimed;
+    }
+
+    public long getReclaimedRanges(){
+        return reclaimedRanges.get();
+    }
+
+    /**
+     * 开始记录未完成的事务，应在提交第一个事务之前调用
+     */
+    public void trackLiveTransactions(){
+        synchronized (stateLock){
+            if(liveTransactions==null)
+                liveTransactions = new ConcurrentSkipListMap<Long,Transaction>();
+        }
+    }
+
+    /**
+     * 按事务id排列的未完成事务的快照，不阻塞调度与执行。并发完成的事务可能仍在快照中
+     * @return 没有调用{@link #trackLiveTransactions}时返回null
+     */
+    public List<Transaction> liveTransactions(){
+        ConcurrentSkipListMap<Long,Transaction> live = liveTransactions;
+        return live==null ? null : new ArrayList<Transaction>(live.values());
+    }
+
+    ObjectPool<TransactionImpl> getTransactionPool(){
+        return transactionPool;
+    }
+
+    /**
+     * 事务对象池取对象的命中率，并行分配时不复用事务对象，为0。
+     * 对象池只由调度线程修改，其他线程读到的统计可能稍有滞后
+     */
+    public double getTransactionPoolHitRate(){
+        return transactionPool.hitRate();
+    }
+
+    //从事务对象池取出后还没有归还的事务数
+    public long getOutstandingTransactions(){
+        return transactionPool.outstanding();
+    }
+
+    /**
+     * 各表申请范围对象池合计的命中率，还没有取过对象时为0
+     */
+    public double getRangePoolHitRate(){
+        long[] stats = resourceManager.rangePoolStats();
+        long total = stats[0]+stats[1];
+        return total==0 ? 0 : (double) stats[0]/total;
+    }
+
+    //各表从申请范围对象池取出后还没有归还的范围数之和
+    public long getOutstandingRanges(){
+        return resourceManager.rangePoolStats()[2];
+    }
+
+    private void allocate(Transaction transactionToAllocate){
+        TransactionImpl newTransaction = allocators==null ? transactionPool.obtain() : null;
+        if(newTransaction==null)
+            newTransaction = new TransactionImpl(transactionToAllocate.getTransactionId(),
+                    transactionToAllocate.getApplyRanges(),transactionToAllocate.getRequestStr(),this);
+        else
+            newTransaction.reuse(transactionToAllocate.getTransactionId(),
+                    transactionToAllocate.getApplyRanges(),transactionToAllocate.getRequestStr());
+        if(allocators!=null)
+            resourceManager.dispatch(newTransaction,allocators);
+        else
+            allocateBatch.add(newTransaction);
+    }
+
+    /**
+     * 释放事务占有的资源，并行分配时由事务参与的各分配线程分别释放
+     * @param transaction   执行完毕的事务
+     */
+    private void release(TransactionImpl transaction){
+        ConcurrentSkipListMap<Long,Transaction> live = liveTransactions;
+        if(live!=null)
+            live.remove(transaction.getTransactionId());
+        if(allocators==null){
+            transaction.complete();
+            transactionPool.recycle(transaction);
+            return;
+        }
+        if(transaction.partitions.length==0){
+            transaction.complete();
+            return;
+        }
+        for(int partition:transaction.partitions){
+            allocators[partition].release(transaction);
+        }
+    }
+
+    /**
+     * 事务满足执行条件，如果再allocatedTransaction中存在事务实例，先将其去除然后添加到执行队列中。
+     * 由调度线程或分配线程调用，执行队列已满或当前线程还有积压时，放入当前线程的积压队列
      * @param transaction
      */
-    synchronized void fireTransaction(Transaction transaction){
-        if(allocatedTransactions.contains(transaction)){
-            allocatedTransactions.remove(transaction);
+    void fireTransaction(Transaction transaction){
+        allocatedTransactions.remove(transaction);
+        ArrayDeque<Transaction> backlog = fireBacklog.get();
+        if(backlog.isEmpty()&&toExecuteTransactions.offer(transaction)){
+            waitStrategy.signalAll();
+            return;
         }
-        try {
-            toExecuteTransactions.put(transaction);
-        } catch (InterruptedException e) {
-            fireTransaction(transaction);
+        backlog.add(transaction);
+    }
+
+    /**
+     * 把当前线程积压的事务按原顺序转入执行队列，由调度线程和分配线程在每轮循环开始时调用
+     * @return 是否转入了事务
+     */
+    boolean flushFiredTransactions(){
+        ArrayDeque<Transaction> backlog = fireBacklog.get();
+        boolean flushed = false;
+        while (!backlog.isEmpty()&&toExecuteTransactions.offer(backlog.peek())){
+            backlog.poll();
+            flushed = true;
         }
+        if(flushed)
+            waitStrategy.signalAll();
+        return flushed;
     }
 
     void waitTransaction(Transaction transaction){
         allocatedTransactions.add(transaction);
     }
 
+    /**
+     * 环形缓冲区中的事务只能按顺序消费，这里只需要清理等待集合
+     */
     void transactionCompleted(Transaction transaction){
-        if(unAllocatedTransactions.contains(transaction))
-            unAllocatedTransactions.remove(transaction);
-        if(allocatedTransactions.contains(transaction))
-            allocatedTransactions.remove(transaction);
-        if(toExecuteTransactions.contains(transaction))
-            toExecuteTransactions.remove(transaction);
+        allocatedTransactions.remove(transaction);
+    }
+
+    /**
+     * 运行时注册一张表，不暂停其他表的分配，注册完成后新表对分配线程原子地可见
+     * @param tableConfig   JSON对象，格式与配置文件中的一项相同，例如{"tableName":"user","type":"Integer"}
+     * @return 表的编号
+     * @throws IllegalArgumentException 表已存在或配置有误
+     */
+    public int registerTable(String tableConfig){
+        JsonObject config;
+        try {
+            config = new JsonParser().parse(tableConfig).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("malformed table config "+tableConfig, e);
+        }
+        return resourceManager.register(config);
+    }
+
+    /**
+     * 运行时移除一张表，之后对该表的申请不再加锁，已经申请的范围照常授予与释放
+     * @return 表不存在时返回false
+     */
+    public boolean retireTable(String tableName){
+        return resourceManager.retire(tableName);
+    }
+
+    /**
+     * 重新加载配置文件，见{@link ResourceManager#reload}
+     * @return 是否有表发生变化
+     */
+    public boolean reloadConfig() throws IOException {
+        return resourceManager.reload();
+    }
+
+    /**
+     * 监视配置文件，文件修改后自动重新加载，{@link #close}时停止
+     */
+    public void watchConfig() throws IOException {
+        synchronized (stateLock){
+            if(configWatcher!=null)
+                return;
+            configWatcher = new ConfigWatcher(resourceManager);
+            configWatcher.start();
+        }
+    }
+
+    /**
+     * 取得表的编号，可以通过{@link Range#setTableId}设置到范围上，省去调度时按表名查找
+     * @return 表不存在时返回-1
+     */
+    public int getTableId(String tableName){
+        return resourceManager.getTableId(tableName);
     }
 
     TableResource getTableResource(String name){
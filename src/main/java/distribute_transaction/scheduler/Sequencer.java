@@ -0,0 +1,275 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.UniqueIdGenerator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 序列层，位于{@link Scheduler}之前。客户端的请求先按到达顺序收集在当前epoch中，
+ * epoch结束时按该顺序通过{@link UniqueIdGenerator}分配全局有序的事务id，
+ * 整个epoch作为一批交给{@link Scheduler#scheduleAll}，排序与唤醒调度线程的开销由整批分摊。
+ * <p>
+ * 同一个epoch内的请求顺序只取决于到达顺序，epoch之间按编号先后，
+ * 因此按epoch记录输入的副本重放时得到相同的事务顺序。
+ * 配置了{@link InputLog}时每个epoch先写入日志并刷盘，再交给调度器；
+ * 还可以每隔若干个epoch在两个epoch之间生成{@link Checkpoint}，由独立的线程写入文件。
+ * <p>
+ * 写日志失败时序列层进入失败状态：线程退出，之后的{@link #submit}抛出异常，
+ * 没有交给调度器的事务按顺序保留在{@link #getFailedTransactions}中，由调用方报告给客户端或重新提交
+ */
+public class Sequencer extends Thread {
+
+    //请求原语与申请的资源范围，epoch结束时才分配事务id
+    private static final class Request {
+        final List<Range> applyRanges;
+        final String requestStr;
+
+        Request(List<Range> applyRanges, String requestStr) {
+            this.applyRanges = applyRanges;
+            this.requestStr = requestStr;
+        }
+    }
+
+    private final Scheduler scheduler;
+    private final UniqueIdGenerator idGenerator;
+    //epoch的长度，单位纳秒
+    private final long epochNanos;
+    //输入日志，为null时不记录
+    private final InputLog inputLog;
+
+    //检查点路径与间隔的epoch数，路径为null时不生成检查点
+    private String checkpointPath;
+    private int checkpointInterval;
+    //正在写入检查点的线程，上一个检查点还没有写完时跳过本次检查点
+    private Thread checkpointWriter;
+
+    //当前epoch收集的请求，epoch结束时与空列表交换，由requestLock保护
+    private List<Request> pending = new ArrayList<Request>();
+    private List<Request> sequencing = new ArrayList<Request>();
+    //序列层本身是线程，join使用其监视器，不在this上同步
+    private final Object requestLock = new Object();
+    //失败的原因，为null时正常运行
+    private volatile Throwable failure;
+    //失败时没有交给调度器的事务，由requestLock保护
+    private final List<Transaction> failedTransactions = new ArrayList<Transaction>();
+    //已经调用close，之后的请求被拒绝，由requestLock保护
+    private boolean closed = false;
+    //下一个epoch的编号
+    private volatile long epoch = 0;
+
+    private volatile boolean shutdown = true;
+
+    /**
+     * @param scheduler     已经启动的调度器
+     * @param epochMillis   epoch的长度，单位毫秒，一般为5到10毫秒
+     */
+    public Sequencer(Scheduler scheduler, long epochMillis) {
+        this(scheduler, epochMillis, new UniqueIdGenerator());
+    }
+
+    public Sequencer(Scheduler scheduler, long epochMillis, UniqueIdGenerator idGenerator) {
+        this(scheduler, epochMillis, idGenerator, null);
+    }
+
+    /**
+     * @param inputLog  输入日志，epoch编号从日志的{@link InputLog#nextEpoch()}开始
+     */
+    public Sequencer(Scheduler scheduler, long epochMillis, UniqueIdGenerator idGenerator, InputLog inputLog) {
+        super("sequencer");
+        if (epochMillis <= 0)
+            throw new IllegalArgumentException("epoch length should be positive, " + epochMillis);
+        this.scheduler = scheduler;
+        this.idGenerator = idGenerator;
+        this.epochNanos = TimeUnit.MILLISECONDS.toNanos(epochMillis);
+        this.inputLog = inputLog;
+        if (inputLog != null)
+            this.epoch = inputLog.nextEpoch();
+    }
+
+    /**
+     * 每隔interval个epoch生成一次检查点，需要配置输入日志，应在启动之前调用
+     */
+    public void setCheckpoint(String checkpointPath, int interval) {
+        if (inputLog == null)
+            throw new IllegalStateException("checkpoints need an input log to replay the suffix");
+        if (interval <= 0)
+            throw new IllegalArgumentException("checkpoint interval should be positive, " + interval);
+        scheduler.trackLiveTransactions();
+        this.checkpointPath = checkpointPath;
+        this.checkpointInterval = interval;
+    }
+
+    @Override
+    public void start() {
+        shutdown = false;
+        super.start();
+    }
+
+    /**
+     * 停止收集新的epoch，已经提交的请求在线程退出前作为最后一个epoch交给调度器，
+     * 之后的{@link #submit}抛出异常。先在requestLock下拒绝新的请求再通知线程，
+     * 最后一个epoch因此包含所有被接受的请求
+     */
+    public void close() {
+        synchronized (requestLock) {
+            closed = true;
+        }
+        shutdown = true;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * 提交一个请求，由客户端线程调用
+     * @param applyRanges   事务申请的资源范围
+     * @param requestStr    请求原语
+     * @throws IllegalStateException    序列层已经失败或关闭
+     */
+    public void submit(List<Range> applyRanges, String requestStr) {
+        Request request = new Request(applyRanges, requestStr);
+        synchronized (requestLock) {
+            if (failure != null)
+                throw new IllegalStateException("sequencer failed, request is not accepted", failure);
+            if (closed)
+                throw new IllegalStateException("sequencer is closed, request is not accepted");
+            pending.add(request);
+        }
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime() + epochNanos;
+        try {
+            while (!shutdown) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                    continue;
+                }
+                sequenceEpoch();
+                //处理耗时超过一个epoch时不补齐错过的epoch
+                deadline = Math.max(deadline + epochNanos, System.nanoTime());
+            }
+            sequenceEpoch();
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+        try {
+            awaitCheckpoint();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 进入失败状态，不再接受请求，已经提交但还没有分配事务id的请求也分配id后保留
+     */
+    private void fail(Throwable cause) {
+        cause.printStackTrace();
+        synchronized (requestLock) {
+            failure = cause;
+            for (int i = 0; i < pending.size(); i++) {
+                Request request = pending.get(i);
+                failedTransactions.add(new Transaction(idGenerator.getNextUniqueId(), request.applyRanges,
+                        request.requestStr));
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * 结束当前epoch，为其中的请求分配事务id并交给调度器，没有请求时不产生epoch。
+     * 写日志失败时该epoch不会交给调度器，其中的事务保留在{@link #getFailedTransactions}中，
+     * 抛出{@link UncheckedIOException}
+     * @return 交给调度器的事务数
+     */
+    int sequenceEpoch() {
+        List<Request> requests;
+        synchronized (requestLock) {
+            if (pending.isEmpty())
+                return 0;
+            requests = pending;
+            pending = sequencing;
+        }
+        List<Transaction> transactions = new ArrayList<Transaction>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            Request request = requests.get(i);
+            transactions.add(new Transaction(idGenerator.getNextUniqueId(), request.applyRanges, request.requestStr));
+        }
+        requests.clear();
+        sequencing = requests;
+        if (inputLog != null) {
+            try {
+                inputLog.append(epoch, transactions);
+            } catch (IOException e) {
+                synchronized (requestLock) {
+                    failedTransactions.addAll(transactions);
+                }
+                throw new UncheckedIOException("failed to log epoch " + epoch, e);
+            }
+        }
+        scheduler.scheduleAll(transactions);
+        epoch++;
+        if (checkpointPath != null && epoch % checkpointInterval == 0)
+            checkpoint();
+        return transactions.size();
+    }
+
+    /**
+     * 在两个epoch之间取得未完成事务的快照，写文件交给独立的线程，调度不需要暂停
+     * @return 是否开始写入检查点
+     */
+    boolean checkpoint() {
+        if (checkpointWriter != null && checkpointWriter.isAlive())
+            return false;
+        final long checkpointEpoch = epoch - 1;
+        final List<Transaction> live = scheduler.liveTransactions();
+        final String path = checkpointPath;
+        checkpointWriter = new Thread("checkpoint-" + checkpointEpoch) {
+            @Override
+            public void run() {
+                try {
+                    Checkpoint.write(path, checkpointEpoch, live);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        checkpointWriter.start();
+        return true;
+    }
+
+    //等待正在写入的检查点完成
+    void awaitCheckpoint() throws InterruptedException {
+        if (checkpointWriter != null)
+            checkpointWriter.join();
+    }
+
+    /**
+     * @return 失败的原因，正常运行时返回null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * 失败时没有交给调度器的事务，按事务id排列：先是写日志失败的epoch，之后是失败时已经提交的请求
+     */
+    public List<Transaction> getFailedTransactions() {
+        synchronized (requestLock) {
+            return new ArrayList<Transaction>(failedTransactions);
+        }
+    }
+
+    /**
+     * 下一个epoch的编号，没有日志时即已经交给调度器的epoch数
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+}
@@ -0,0 +1,103 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.RingBuffer;
+import distribute_transaction.core.WaitStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 并行分配模式下的分配线程，独占若干张表的资源申请与释放。调度线程按全局顺序把
+ * 事务分发到各分配线程，每个分配线程按到达顺序处理，因此每张表上的申请顺序与单线程
+ * 分配时完全一致。事务在所有参与的分配线程都授予了资源之后才会执行
+ */
+class TableAllocator extends Thread {
+
+    private final int toAllocateSize = 512;
+    private final int toReleaseSize = 4096;
+    //每轮最多处理的待分配事务数
+    private final int allocateBatchSize = 64;
+
+    //分配线程编号
+    private final int partition;
+    private final ResourceManager resourceManager;
+    private final Scheduler scheduler;
+    //待申请资源的事务
+    private final RingBuffer<TransactionImpl> toAllocateTransactions;
+    //执行完毕，等待释放资源的事务
+    private final RingBuffer<TransactionImpl> toReleaseTransactions;
+    private final WaitStrategy waitStrategy;
+    private final RingBuffer.Handler<TransactionImpl> releaseHandler = new RingBuffer.Handler<TransactionImpl>() {
+        @Override
+        public void onEvent(TransactionImpl transaction) {
+            transaction.complete(partition);
+        }
+    };
+    //本轮取出的待分配事务，整批按表申请
+    private final List<TransactionImpl> allocateBatch = new ArrayList<TransactionImpl>();
+    private final RingBuffer.Handler<TransactionImpl> allocateHandler = new RingBuffer.Handler<TransactionImpl>() {
+        @Override
+        public void onEvent(TransactionImpl transaction) {
+            allocateBatch.add(transaction);
+        }
+    };
+
+    private volatile boolean shutdown = true;
+
+    TableAllocator(int partition, ResourceManager resourceManager, Scheduler scheduler, WaitStrategy waitStrategy) {
+        super("allocator-" + partition);
+        this.partition = partition;
+        this.resourceManager = resourceManager;
+        this.scheduler = scheduler;
+        this.waitStrategy = waitStrategy;
+        this.toAllocateTransactions = new RingBuffer<TransactionImpl>(toAllocateSize, waitStrategy);
+        this.toReleaseTransactions = new RingBuffer<TransactionImpl>(toReleaseSize, waitStrategy);
+    }
+
+    @Override
+    public void start() {
+        shutdown = false;
+        super.start();
+    }
+
+    void close() {
+        shutdown = true;
+    }
+
+    /**
+     * 由调度线程调用，调度线程分发完一批事务后统一唤醒分配线程
+     */
+    void allocate(TransactionImpl transaction) {
+        toAllocateTransactions.put(transaction);
+    }
+
+    void release(TransactionImpl transaction) {
+        toReleaseTransactions.put(transaction);
+        waitStrategy.signalAll();
+    }
+
+    @Override
+    public void run() {
+        int idleCount = 0;
+        while (!shutdown) {
+            boolean busy = scheduler.flushFiredTransactions();
+            while (toReleaseTransactions.drain(releaseHandler, toReleaseSize) > 0) {
+                busy = true;
+            }
+
+            if (toAllocateTransactions.drain(allocateHandler, allocateBatchSize) > 0) {
+                resourceManager.scheduleBatch(allocateBatch, partition);
+                allocateBatch.clear();
+                busy = true;
+            }
+            if (scheduler.compact(partition) > 0)
+                busy = true;
+
+            if (busy)
+                idleCount = 0;
+            else
+                idleCount = waitStrategy.idle(idleCount);
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package distribute_transaction.scheduler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 表目录，加载配置时按顺序为每张表分配从0开始的连续编号。
+ * 范围第一次查找所属的表时按表名查找，之后把编号记在{@link Range#tableId}中，
+ * 再次查找只需按编号取数组元素并核对表名，不再计算表名的哈希值。
+ * 调用方也可以通过{@link Scheduler#getTableId}预先取得编号，在创建范围时设置。
+ * <p>
+ * 运行时增删表采用写时复制：在{@link #copy}得到的副本上注册或移除表，
+ * 再整体替换{@link ResourceManager}持有的目录，读取方每次操作只读取一次目录，
+ * 因此同一次操作中看到的表集合不变，新表对分配线程原子地可见。
+ * 移除的表留下空位，编号不再复用，范围上缓存的编号不会指向其他表
+ */
+class TableCatalog {
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private TableResource[] tables = new TableResource[8];
+    private int size = 0;
+
+    //副本，注册与移除不影响当前目录
+    TableCatalog copy() {
+        TableCatalog copy = new TableCatalog();
+        copy.ids.putAll(ids);
+        copy.tables = tables.clone();
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * 注册一张表
+     * @return 表的编号
+     */
+    int register(TableResource tableResource) {
+        if (ids.containsKey(tableResource.getTableName()))
+            throw new IllegalArgumentException("duplicate table " + tableResource.getTableName());
+        if (size == tables.length)
+            tables = Arrays.copyOf(tables, size << 1);
+        int tableId = size++;
+        tables[tableId] = tableResource;
+        tableResource.tableId = tableId;
+        ids.put(tableResource.getTableName(), tableId);
+        return tableId;
+    }
+
+    /**
+     * 移除一张表，其编号之后不再使用
+     * @return 被移除的表，表不存在时返回null
+     */
+    TableResource retire(String tableName) {
+        Integer tableId = ids.remove(tableName);
+        if (tableId == null)
+            return null;
+        TableResource tableResource = tables[tableId];
+        tables[tableId] = null;
+        return tableResource;
+    }
+
+    /**
+     * @return 表的编号，表不存在时返回-1
+     */
+    int idOf(String tableName) {
+        Integer tableId = ids.get(tableName);
+        return tableId == null ? -1 : tableId;
+    }
+
+    /**
+     * @return 表已经移除时返回null
+     */
+    TableResource get(int tableId) {
+        return tables[tableId];
+    }
+
+    TableResource get(String tableName) {
+        int tableId = idOf(tableName);
+        return tableId < 0 ? null : tables[tableId];
+    }
+
+    /**
+     * 查找范围所属的表，并把编号记在范围中。范围上已有的编号来自其他目录时，核对表名后重新查找
+     * @return 表不存在时返回null
+     */
+    TableResource resolve(Range range) {
+        int tableId = range.tableId;
+        if (tableId >= 0 && tableId < size) {
+            TableResource tableResource = tables[tableId];
+            if (tableResource != null && tableResource.getTableName().equals(range.getTableName()))
+                return tableResource;
+        }
+        tableId = idOf(range.getTableName());
+        range.tableId = tableId;
+        return tableId < 0 ? null : tables[tableId];
+    }
+
+    //编号的上界，包括已经移除的表
+    int size() {
+        return size;
+    }
+
+}
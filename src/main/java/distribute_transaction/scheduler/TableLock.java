@@ -0,0 +1,101 @@
+package distribute_transaction.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 表级锁，整表请求与范围请求的意向锁都在这里排队。
+ * <p>
+ * 每种模式只保存已授予与等待中的请求数：新请求与所有已授予、等待中的请求都相容时立即获得，
+ * 只需检查五个计数；否则按到达顺序进入等待队列。请求释放后从队头扫描等待队列，
+ * 与已授予的请求以及队列中在它之前的等待请求都相容的请求获得表级锁，
+ * 因此每个请求都只等待在它之前到达且与之冲突的请求，与范围层的授予顺序一致。
+ * <p>
+ * 非线程安全，只由表所属的分配线程访问
+ */
+class TableLock {
+
+    private static final Lock[] MODES = Lock.values();
+
+    private final int[] grantedCounts = new int[MODES.length];
+    private final int[] waitingCounts = new int[MODES.length];
+    //按到达顺序等待的请求，请求的模式为其tableLockMode
+    private final ArrayDeque<Range> waitingQueue = new ArrayDeque<Range>();
+
+    /**
+     * 申请表级锁
+     * @param range 整表请求或持有意向锁的范围请求
+     * @return 立即获得时返回true，否则请求进入等待队列，获得时通知其事务
+     */
+    boolean request(Range range){
+        Lock mode = range.tableLockMode;
+        if(compatibleWith(mode, grantedCounts)&&compatibleWith(mode, waitingCounts)){
+            grantedCounts[mode.ordinal()]++;
+            return true;
+        }
+        waitingCounts[mode.ordinal()]++;
+        waitingQueue.add(range);
+        return false;
+    }
+
+    /**
+     * 释放已获得的表级锁，并授予因此不再冲突的等待请求
+     */
+    void release(Range range){
+        grantedCounts[range.tableLockMode.ordinal()]--;
+        if(!waitingQueue.isEmpty())
+            grantWaiting();
+    }
+
+    private void grantWaiting(){
+        //队列中位于当前请求之前、仍在等待的请求的模式
+        int blockedModes = 0;
+        Iterator<Range> iterator = waitingQueue.iterator();
+        while (iterator.hasNext()){
+            Range range = iterator.next();
+            Lock mode = range.tableLockMode;
+            if(compatibleWith(mode, grantedCounts)&&compatibleWithModes(mode, blockedModes)){
+                iterator.remove();
+                waitingCounts[mode.ordinal()]--;
+                grantedCounts[mode.ordinal()]++;
+                TransactionImpl transaction = (TransactionImpl) range.transaction;
+                if(range.isWholeTable())
+                    transaction.acquireRange(range);
+                else
+                    transaction.tableLockAcquired();
+            }else{
+                blockedModes |= 1<<mode.ordinal();
+                //等待的X与之后的所有请求都冲突
+                if(mode==Lock.X)
+                    break;
+            }
+        }
+    }
+
+    private static boolean compatibleWith(Lock mode, int[] counts){
+        for(int i=0;i<counts.length;i++){
+            if(counts[i]>0&&!mode.compatibleWith(MODES[i]))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean compatibleWithModes(Lock mode, int modes){
+        for(int i=0;i<MODES.length;i++){
+            if((modes&(1<<i))!=0&&!mode.compatibleWith(MODES[i]))
+                return false;
+        }
+        return true;
+    }
+
+    //已授予某种模式的请求数
+    int grantedCount(Lock mode){
+        return grantedCounts[mode.ordinal()];
+    }
+
+    //等待中的请求数
+    int waitingCount(){
+        return waitingQueue.size();
+    }
+
+}
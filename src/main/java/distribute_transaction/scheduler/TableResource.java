@@ -1,8 +1,11 @@
 package distribute_transaction.scheduler;
 
-import distribute_transaction.core.AlgUtils;
+import distribute_transaction.core.ObjectPool;
+import distribute_transaction.core.SkipList;
+import distribute_transaction.core.SkipList.Node;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -12,129 +15,472 @@ import java.util.List;
 public class TableResource<T extends Comparable<T>> {
 
     private String tableName;
+    //在{@link TableCatalog}中的编号
+    int tableId = -1;
+    //并行分配时负责该表的分配线程编号，单线程分配时为0
+    int partition = 0;
+    //配置文件中指定的分配线程分组，小于0表示未指定
+    int allocatorGroup = -1;
+    /**
+     * 同一事务在该表上规整后的范围数超过该值时升级为一个范围，不大于0表示不升级。
+     * 重新加载配置时可以直接修改，随之后替换的目录对调度线程可见
+     */
+    int escalationThreshold = 0;
+
+    /**
+     * 当前所有仍占有资源的申请范围，各范围之间互不重叠，按左边界有序。
+     * 由跳表维护，定位前继为O(log n)，插入、删除、分裂均不需要移动其他元素
+     */
+    private SkipList<ApplyRange<T>> lastApplyRanges;
+    /**
+     * 上一次申请的范围所在的结点，下一次申请从这里向两侧查找前继。
+     * 键值递增或集中在局部的申请因此只需走过很短的距离，结点已被删除时从头查找
+     */
+    private Node<ApplyRange<T>> finger;
+    //整表请求与范围请求的意向锁
+    private final TableLock tableLock = new TableLock();
+    //本表所有范围共用的等待关系结点池
+    private final WaitEdge.Pool edgePool = new WaitEdge.Pool();
+    //本表失活范围的对象池，见{@link ApplyRange#dropped}
+    private final ObjectPool<ApplyRange<T>> rangePool = new ObjectPool<ApplyRange<T>>(RANGE_POOL_CAPACITY);
+    private static final int RANGE_POOL_CAPACITY = 4096;
+
+    /**
+     * 后台整理的状态：上一轮整理之后释放的范围数，有释放时才开始新一轮整理。
+     * 一轮整理从头到尾扫描一遍加锁范围，可以分多次完成，compactCursor为下次继续的位置
+     */
+    private int releasedSinceCompact = 0;
+    private boolean compacting = false;
+    private Node<ApplyRange<T>> compactCursor;
+    //本次整理回收的数量
+    int compactReclaimed;
+    //每扫描这么多结点检查一次时间
+    private static final int COMPACT_CHECK_INTERVAL = 32;
 
     TableResource(String tableName){
-        this.tableName = tableName;
+        this(tableName,null);
     }
 
-    private List<ApplyRange<T>> lastApplyRanges = new ArrayList<ApplyRange<T>>();
+    /**
+     * @param leftOrder 加锁范围按左边界排序的比较器，为null时使用{@link ApplyRange#compareTo}
+     */
+    TableResource(String tableName, Comparator<? super ApplyRange<T>> leftOrder){
+        this.tableName = tableName;
+        this.lastApplyRanges = new SkipList<ApplyRange<T>>(leftOrder);
+    }
 
     /**
      * 向资源表申请范围资源
      * @param applyRange
      */
     void applyFor(Range<T> applyRange){
-        ApplyRange<T> newApplyRange = new ApplyRange<T>(applyRange);
-        //找到新范围的前继
-        int indexOfPre = AlgUtils.findPreOfList(lastApplyRanges,newApplyRange);
-        applyResourceForRange(newApplyRange,indexOfPre);
+        if(applyRange.isWholeTable()){
+            applyForWholeTable(applyRange);
+            return;
+        }
+        applyForRange(applyRange);
+    }
+
+    /**
+     * 申请一个有边界的范围，VLL模式的表会覆盖该方法
+     */
+    void applyForRange(Range<T> applyRange){
+        ApplyRange<T> newApplyRange = newApplyRange(applyRange);
+        acquireIntention(newApplyRange);
+        Node<ApplyRange<T>> node = apply(newApplyRange,finger);
+        if(node!=null)
+            finger = node;
+        acquiredOrWait(newApplyRange);
+    }
+
+    /**
+     * 整表请求只在表级锁上排队，不进入加锁范围，与表中已有的范围数量无关
+     */
+    private void applyForWholeTable(Range<T> applyRange){
+        applyRange.partition = partition;
+        applyRange.tableLockMode = applyRange.lockModel;
+        applyRange.lockTable = this;
+        TransactionImpl transaction = (TransactionImpl) applyRange.transaction;
+        if(tableLock.request(applyRange))
+            transaction.acquireRangeImmediately(applyRange);
+        else
+            transaction.notAcquiredImmediately(applyRange);
+    }
+
+    /**
+     * 范围请求在表上持有意向锁，读范围为IS，写范围为IX，表上没有与之冲突的整表请求时立即获得。
+     * 事务在该表上有整表请求时，由整表请求覆盖其范围，不再申请意向锁
+     * @param range 事务完成时释放资源的请求，VLL模式下为请求本身，其他模式下为{@link ApplyRange}
+     */
+    void acquireIntention(Range<T> range){
+        TransactionImpl transaction = (TransactionImpl) range.transaction;
+        //即使不申请意向锁，事务完成时也要经由release通知表
+        range.lockTable = this;
+        if(transaction.hasWholeTableRange(tableName))
+            return;
+        range.tableLockMode = range.lockModel==Lock.X ? Lock.IX : Lock.IS;
+        if(!tableLock.request(range))
+            transaction.notAcquiredImmediately(range);
+    }
+
+    /**
+     * 请求所属的事务完成，释放其表级锁
+     */
+    void release(Range<T> range){
+        if(range.tableLockMode!=null){
+            tableLock.release(range);
+            range.tableLockMode = null;
+        }
+        range.lockTable = null;
+        releasedSinceCompact++;
+    }
+
+    /**
+     * 增量整理加锁范围。失活的范围平时只在新的申请扫描经过时才被移除，冷区域中的失活范围
+     * 会一直留在跳表中，因此由分配线程在两批申请之间调用，在时间预算内继续上一次未完成的扫描，
+     * 移除失活的范围。失活范围的子结点随其根结点一起失活，同样在这里移除；
+     * 仍然有效的同一根结点的各部分之间总隔着其他仍然有效的范围，不需要合并
+     * @param deadline  截止时间，与{@link System#nanoTime()}比较，每扫描若干结点检查一次
+     * @return 回收的范围数
+     */
+    int compact(long deadline){
+        if(!compacting){
+            if(releasedSinceCompact==0)
+                return 0;
+            releasedSinceCompact = 0;
+            compacting = true;
+            compactCursor = null;
+        }
+        compactReclaimed = 0;
+        if(compactStep(deadline))
+            compacting = false;
+        return compactReclaimed;
+    }
+
+    /**
+     * 继续本轮整理，回收的数量累加到compactReclaimed中
+     * @return 本轮整理是否已经完成
+     */
+    boolean compactStep(long deadline){
+        Node<ApplyRange<T>> node;
+        if(compactCursor==null)
+            node = lastApplyRanges.first();
+        else
+            node = compactCursor;
+        int scanned = 0;
+        while (node!=null){
+            Node<ApplyRange<T>> next = lastApplyRanges.next(node);
+            if(node.getValue().shouldRelease()){
+                drop(node);
+                compactReclaimed++;
+            }
+            node = next;
+            if(++scanned%COMPACT_CHECK_INTERVAL==0&&node!=null&&System.nanoTime()-deadline>=0){
+                compactCursor = node;
+                return false;
+            }
+        }
+        compactCursor = null;
+        return true;
+    }
+
+    /**
+     * 按序号顺序批量申请一组范围，结果与依次调用{@link #applyFor}完全一致。
+     * 先按左边界排序，沿着加锁范围单向走一遍，为每个范围记下当时的前继；之后仍按序号顺序
+     * 申请，每个范围从记下的前继开始向后查找真正的前继。批内先申请的范围只会在前继之后
+     * 插入少量结点，因此向后查找的距离很短，整批不需要为每个范围从头查找。
+     * 不能按左边界顺序直接申请：批内互不重叠的范围可能在同一个已有范围上等待，
+     * 它们登记等待的先后决定了之后被通知的顺序
+     * @param applyRanges   按序号排列的范围
+     */
+    @SuppressWarnings("unchecked")
+    void applyForBatch(List<Range<T>> applyRanges){
+        int count = applyRanges.size();
+        if(count<=1||containsWholeTable(applyRanges)){
+            //整表请求很少出现，批内含有整表请求时逐个申请
+            for(int i=0;i<count;i++)
+                applyFor(applyRanges.get(i));
+            return;
+        }
+        final ApplyRange<T>[] newApplyRanges = new ApplyRange[count];
+        Integer[] order = new Integer[count];
+        for(int i=0;i<count;i++){
+            newApplyRanges[i] = newApplyRange(applyRanges.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return compareLeft(newApplyRanges[first], newApplyRanges[second]);
+            }
+        });
+
+        //按左边界递增顺序走一遍，记下每个范围的前继
+        Node<ApplyRange<T>>[] preHints = new Node[count];
+        Node<ApplyRange<T>> finger = null;
+        for(int i=0;i<count;i++){
+            int index = order[i];
+            Node<ApplyRange<T>> preNode = lastApplyRanges.findPreFrom(finger, newApplyRanges[index]);
+            preHints[index] = preNode;
+            if(preNode!=null)
+                finger = preNode;
+        }
+
+        for(int i=0;i<count;i++){
+            ApplyRange<T> newApplyRange = newApplyRanges[i];
+            acquireIntention(newApplyRange);
+            apply(newApplyRange, preHints[i]);
+            acquiredOrWait(newApplyRange);
+        }
+    }
+
+    private static boolean containsWholeTable(List<? extends Range<?>> applyRanges){
+        for(int i=0;i<applyRanges.size();i++){
+            if(applyRanges.get(i).isWholeTable())
+                return true;
+        }
+        return false;
+    }
+
+    private void acquiredOrWait(ApplyRange<T> newApplyRange){
         TransactionImpl transaction = (TransactionImpl) newApplyRange.transaction;
         if(newApplyRange.hasAcquiredAllResource()){
-            transaction.acquireRange(newApplyRange);
+            transaction.acquireRangeImmediately(newApplyRange);
         }else {
             transaction.notAcquiredImmediately(newApplyRange);
         }
     }
 
+    /**
+     * 为新范围申请资源并把它加入加锁范围，整型表会覆盖该方法，为单点申请提供快速路径
+     * @param newApplyRange 申请范围
+     * @param hint          前继的查找起点，可能已被删除，为null时从头查找
+     * @return 新范围所在的结点，加入共享组时为组的根结点所在的结点，没有放入加锁范围时为null
+     */
+    Node<ApplyRange<T>> apply(ApplyRange<T> newApplyRange, Node<ApplyRange<T>> hint){
+        //找到新范围的前继
+        Node<ApplyRange<T>> preNode = lastApplyRanges.findPreFrom(hint, newApplyRange);
+        return applyResourceForRange(newApplyRange, preNode);
+    }
+
+    //把结点移出加锁范围，由子类在别处保存该范围
+    void unlink(Node<ApplyRange<T>> node){
+        removeNode(node);
+    }
+
+    //把失活或被新范围完全覆盖的结点移出加锁范围，之后不会再放回，范围可以被回收
+    private void drop(Node<ApplyRange<T>> node){
+        removeNode(node);
+        dropRange(node.getValue());
+    }
+
+    //新范围或分裂出的子结点进入加锁范围
+    private Node<ApplyRange<T>> link(Node<ApplyRange<T>> after, ApplyRange<T> range){
+        Node<ApplyRange<T>> node = lastApplyRanges.insertAfter(after, range);
+        rangeEntered(range);
+        return node;
+    }
+
+    //范围离开加锁范围，子类在别处保存的范围离开时也经由这里
+    void dropRange(ApplyRange<T> range){
+        rangeLeft(range);
+        range.dropped();
+    }
+
+    /**
+     * 范围进入或离开加锁范围时调用，包括子类保存在跳表之外的范围，
+     * 在跳表与子类的存储之间移动不算进入或离开。子类据此维护冲突预过滤器
+     */
+    void rangeEntered(ApplyRange<T> range){
+    }
+
+    void rangeLeft(ApplyRange<T> range){
+    }
+
+    /**
+     * 整理暂停的位置如果被移除，把它移到相邻的结点，恢复时不会访问已经移出、可能已被回收的范围。
+     * 移到前继时只会多检查一个结点
+     */
+    private void removeNode(Node<ApplyRange<T>> node){
+        if(node==compactCursor){
+            Node<ApplyRange<T>> next = lastApplyRanges.next(node);
+            compactCursor = next!=null ? next : lastApplyRanges.prev(node);
+        }
+        lastApplyRanges.remove(node);
+    }
+
+    //把之前移出的范围放回加锁范围，调用方需保证它与加锁范围中的其他范围互不重叠
+    void relink(ApplyRange<T> range){
+        lastApplyRanges.insertAfter(lastApplyRanges.findPre(range), range);
+    }
+
+    ApplyRange<T> newApplyRange(Range<T> applyRange){
+        ApplyRange<T> newApplyRange = ApplyRange.obtain(applyRange, edgePool, rangePool);
+        newApplyRange.partition = partition;
+        return newApplyRange;
+    }
+
     /**
      * 为范围锁申请资源
      * @param newApplyRange 申请范围
-     * @param indexOfPre    前继结点
+     * @param preNode       前继结点
+     * @return 新范围所在的结点
      */
-    private void applyResourceForRange(ApplyRange<T> newApplyRange, int indexOfPre) {
-        ApplyRange<T> preRange = indexOfPre>=0 ? lastApplyRanges.get(indexOfPre):null;
-        //与前继结点存在重合
-        int insertIndex = indexOfPre+1;
+    private Node<ApplyRange<T>> applyResourceForRange(ApplyRange<T> newApplyRange, Node<ApplyRange<T>> preNode) {
+        //与左边界相同的读范围边界也相同时，加入它的共享组
+        if(newApplyRange.lockModel==Lock.S){
+            Node<ApplyRange<T>> sameLeft = lastApplyRanges.next(preNode);
+            if(sameLeft!=null&&joinSharedGroup(newApplyRange, sameLeft.getValue()))
+                return sameLeft;
+        }
+        //新范围将插入到insertAfter之后
+        Node<ApplyRange<T>> insertAfter = preNode;
 
-        if(isValidRange(indexOfPre)) {
+        if(isValidRange(preNode)) {
+            ApplyRange<T> preRange = preNode.getValue();
+            //与前继结点存在重合
             if (overlap(preRange, newApplyRange)) {
                 //新申请范围在前继结点里面
-                if (newApplyRange.isWithin(preRange)) {
+                if (isWithin(newApplyRange, preRange)) {
                     //右边界相等时
-                    if (newApplyRange.right.compareTo(preRange.right) == 0) {
-                        preRange.right = newApplyRange.left;
+                    if (compareRight(newApplyRange, preRange) == 0) {
+                        preRange.setRightToLeftOf(newApplyRange);
                         newApplyRange.applyOnLastApplyRange(preRange);
-                        lastApplyRanges.add(indexOfPre + 1, newApplyRange);
-                        return;
+                        return link(preNode, newApplyRange);
                     } else {
                         //新申请的范围在原范围之内，需要将原范围分裂
-                        ApplyRange<T> childRange = preRange.newChildRange(newApplyRange.right, preRange.right);
-                        preRange.right = newApplyRange.left;
+                        ApplyRange<T> childRange = preRange.newChildRange(newApplyRange);
+                        preRange.setRightToLeftOf(newApplyRange);
                         newApplyRange.applyOnLastApplyRange(preRange);
-                        lastApplyRanges.add(++indexOfPre, newApplyRange);
-                        lastApplyRanges.add(++indexOfPre, childRange);
-                        return;
+                        Node<ApplyRange<T>> newNode = link(preNode, newApplyRange);
+                        link(newNode, childRange);
+                        return newNode;
                     }
                 } else {
-                    preRange.right = newApplyRange.left;
+                    preRange.setRightToLeftOf(newApplyRange);
                     newApplyRange.applyOnLastApplyRange(preRange);
                 }
             }
-        }else{
-            if(preRange!=null)
-                insertIndex--;
+        }else if(preNode!=null){
+            //前继已失活，新范围占据其位置
+            insertAfter = lastApplyRanges.prev(preNode);
+            drop(preNode);
         }
 
-        while (insertIndex<lastApplyRanges.size()){
-            ApplyRange<T> currentRange = lastApplyRanges.remove(insertIndex);
+        Node<ApplyRange<T>> currentNode;
+        while ((currentNode = lastApplyRanges.next(insertAfter))!=null){
+            ApplyRange<T> currentRange = currentNode.getValue();
             //移除所有失活结点
-            if(currentRange.shouldRelease())
+            if(currentRange.shouldRelease()) {
+                drop(currentNode);
                 continue;
+            }
             if(!overlap(newApplyRange,currentRange)) {
-                lastApplyRanges.add(insertIndex,currentRange);
                 break;
             }
             /**
              * 对应着申请结点与后继结点的三种重叠情况，对于current.left == new.left的情况
              * 依然使用，这种情况被下面三种情况囊括了
              */
-            if(currentRange.right.compareTo(newApplyRange.right)<0){
+            int compareOfRight = compareRight(currentRange, newApplyRange);
+            if(compareOfRight<0){
                 newApplyRange.applyOnLastApplyRange(currentRange);
-            }else if(currentRange.right.compareTo(newApplyRange.right)==0){
+                drop(currentNode);
+            }else if(compareOfRight==0){
                 newApplyRange.applyOnLastApplyRange(currentRange);
+                drop(currentNode);
                 break;
             }else{
-                currentRange.left = newApplyRange.right;
+                currentRange.setLeftToRightOf(newApplyRange);
                 newApplyRange.applyOnLastApplyRange(currentRange);
-                lastApplyRanges.add(insertIndex,currentRange);
                 break;
             }
         }
-        lastApplyRanges.add(insertIndex, newApplyRange);
+        return link(insertAfter, newApplyRange);
+    }
+
+    /**
+     * 新的读范围与root边界相同时加入root的共享组，加锁范围保持不变。
+     * 空范围与其他范围的重叠判断特殊，不加入共享组
+     * @return 是否已经加入
+     */
+    boolean joinSharedGroup(ApplyRange<T> newApplyRange, ApplyRange<T> root){
+        if(!root.acceptsSharedReaders()
+                ||compareLeft(newApplyRange, root)!=0||compareRight(newApplyRange, root)!=0
+                ||compareRightWithLeft(newApplyRange, newApplyRange)<=0)
+            return false;
+        newApplyRange.joinSharedGroup(root);
+        return true;
     }
 
     //判断两个范围是否有重合
     private boolean overlap(ApplyRange<T> first,ApplyRange<T> second){
         if(first==null||second==null)
             return false;
-        if(first.left.compareTo(second.left)==0)
+        int compareOfLeft = compareLeft(first, second);
+        if(compareOfLeft==0)
             return true;
-        else if(first.left.compareTo(second.left)<0&&first.right.compareTo(second.left)>0)
+        else if(compareOfLeft<0&&compareRightWithLeft(first, second)>0)
             return true;
-        else if(first.left.compareTo(second.left)>0&&first.left.compareTo(second.right)<0)
+        else if(compareOfLeft>0&&compareLeftWithRight(first, second)<0)
             return true;
         return false;
     }
 
+    //判断inner是否在outer里面
+    private boolean isWithin(ApplyRange<T> inner, ApplyRange<T> outer){
+        return compareLeft(outer, inner)<=0&&compareRight(outer, inner)>=0;
+    }
+
+    /**
+     * 以下比较均针对两个申请范围的边界，比较的是边界在数轴上的位置，考虑了无界与开闭区间。
+     * 整型表会覆盖这些方法，直接比较转换后的左闭右开的key
+     */
+    int compareLeft(ApplyRange<T> first, ApplyRange<T> second){
+        return Range.compareBound(first.left, first.leftSide(), second.left, second.leftSide());
+    }
+
+    int compareRight(ApplyRange<T> first, ApplyRange<T> second){
+        return Range.compareBound(first.right, first.rightSide(), second.right, second.rightSide());
+    }
+
+    //first的右边界与second的左边界比较
+    int compareRightWithLeft(ApplyRange<T> first, ApplyRange<T> second){
+        return Range.compareBound(first.right, first.rightSide(), second.left, second.leftSide());
+    }
+
+    //first的左边界与second的右边界比较
+    int compareLeftWithRight(ApplyRange<T> first, ApplyRange<T> second){
+        return Range.compareBound(first.left, first.leftSide(), second.right, second.rightSide());
+    }
+
     public String getTableName(){
         return this.tableName;
     }
 
     /**
-     * 判断一个锁范围是不是依然有效，即其相关的事务处于活跃状态。如处于不活跃
-     * 状态，即应该将其从加锁范围中移除
-     * @param indexOfRange  范围的索引
+     * 判断一个锁范围是不是依然有效，即其相关的事务处于活跃状态。失活的范围
+     * 由调用方负责从加锁范围中移除
+     * @param node  范围所在结点
      * @return
      */
-    private boolean isValidRange(int indexOfRange){
-        if(indexOfRange<0)
-            return false;
-        ApplyRange<T> validateRange = lastApplyRanges.get(indexOfRange);
-        if(validateRange.shouldRelease()){
-            lastApplyRanges.remove(indexOfRange);
-            return false;
-        }
-        return true;
+    private boolean isValidRange(Node<ApplyRange<T>> node){
+        return node!=null&&!node.getValue().shouldRelease();
+    }
+
+    ObjectPool<ApplyRange<T>> getRangePool(){
+        return rangePool;
+    }
+
+    TableLock getTableLock(){
+        return tableLock;
+    }
+
+    /**
+     * 当前加锁范围的数量，包含尚未被清理的失活范围
+     */
+    int size(){
+        return lastApplyRanges.size();
     }
 
 }
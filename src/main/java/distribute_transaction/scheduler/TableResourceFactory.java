@@ -1,11 +1,72 @@
 package distribute_transaction.scheduler;
 
+import distribute_transaction.core.ByteKey;
+import distribute_transaction.core.CompositeKey;
+
 /**
- * 目前封锁资源类型只支持String、Integer、Double、Float四种
+ * 目前封锁资源类型只支持String、Integer、Double、Float、Long五种，
+ * 其中Integer与Long会使用直接比较原始值的{@link PrimitiveTableResource}。
+ * Integer与Long表还可以通过lockMode为"vll"选择{@link VllTableResource}。
+ * 类型为由Integer与Long组成的数组时，例如["Long","Long"]，主键为{@link CompositeKey}；
+ * 类型为"Bytes"或数组中含有String列时，主键为按字节序编码的{@link ByteKey}。
+ * 单列的String表仍按String.compareTo比较：在范围边界处编码为ByteKey的开销超过了比较省下的时间，
+ * 见ByteKeyBenchmark，而且UTF-8的字节序与String.compareTo在代理对上不一致
  * Created by swqsh on 2017/9/28.
  */
 class TableResourceFactory {
 
+    static final String LOCK_MODE_RANGE = "range";
+    static final String LOCK_MODE_VLL = "vll";
+
+    /**
+     * @param lockMode  为null或"range"时使用范围锁，为"vll"时使用VLL
+     */
+    static TableResource newTableResource(String tableName, String typeName, String lockMode){
+        if(lockMode==null||lockMode.equalsIgnoreCase(LOCK_MODE_RANGE))
+            return newTableResource(tableName,typeName);
+        if(!lockMode.equalsIgnoreCase(LOCK_MODE_VLL))
+            throw new IllegalArgumentException("unknown lock mode "+lockMode+" of table "+tableName);
+        if(typeName.equalsIgnoreCase("Integer")||typeName.equalsIgnoreCase("int")){
+            return new VllTableResource<Integer>(tableName) {
+                @Override
+                long toKey(Integer value) {
+                    return value.intValue();
+                }
+            };
+        }
+        if(typeName.equalsIgnoreCase("Long")){
+            return new VllTableResource<Long>(tableName) {
+                @Override
+                long toKey(Long value) {
+                    return value.longValue();
+                }
+            };
+        }
+        throw new IllegalArgumentException("vll lock mode only supports Integer and Long keys, table "+tableName);
+    }
+
+    /**
+     * 多列组合主键的表，各列只支持Integer、Long与String，只支持范围锁
+     * @param typeNames 各列的类型，含有String列时使用{@link ByteKey}
+     * @param lockMode  为null或"range"
+     */
+    static TableResource newTableResource(String tableName, String[] typeNames, String lockMode){
+        if(lockMode!=null&&!lockMode.equalsIgnoreCase(LOCK_MODE_RANGE))
+            throw new IllegalArgumentException("composite keys only support range lock mode, table "+tableName);
+        if(typeNames.length==0)
+            throw new IllegalArgumentException("composite key of table "+tableName+" has no column");
+        boolean hasString = false;
+        for(String typeName:typeNames){
+            if(typeName.equalsIgnoreCase("String"))
+                hasString = true;
+            else if(!typeName.equalsIgnoreCase("Integer")&&!typeName.equalsIgnoreCase("int")
+                    &&!typeName.equalsIgnoreCase("Long"))
+                throw new IllegalArgumentException("composite keys only support Integer, Long and String columns, table "
+                        +tableName+" has "+typeName);
+        }
+        return hasString ? newByteKeyTableResource(tableName) : newCompositeTableResource(tableName);
+    }
+
     static TableResource newTableResource(String tableName, String typeName){
         if(typeName.equalsIgnoreCase("String")){
             return newStringTableResource(tableName);
@@ -26,11 +87,15 @@ class TableResourceFactory {
         if(typeName.equalsIgnoreCase("Long")){
             return newLongTableResource(tableName);
         }
+
+        if(typeName.equalsIgnoreCase("Bytes")){
+            return newByteKeyTableResource(tableName);
+        }
         return null;
     }
 
     private static TableResource<Long> newLongTableResource(String tableName) {
-        return new TableResource<Long>(tableName);
+        return new LongTableResource(tableName);
     }
 
     private static TableResource<Float> newFloatTableResource(String tableName) {
@@ -42,7 +107,15 @@ class TableResourceFactory {
     }
 
     private static TableResource<Integer> newIntTableResource(String tableName) {
-        return new TableResource<Integer>(tableName);
+        return new IntTableResource(tableName);
+    }
+
+    private static TableResource<CompositeKey> newCompositeTableResource(String tableName){
+        return new TableResource<CompositeKey>(tableName);
+    }
+
+    private static TableResource<ByteKey> newByteKeyTableResource(String tableName){
+        return new TableResource<ByteKey>(tableName);
     }
 
     private static TableResource<String> newStringTableResource(String tableName){
@@ -35,6 +35,21 @@ public class Transaction {
         transactionInit();
     }
 
+    /**
+     * 复用已经完成的事务对象，见{@link Scheduler}中的事务对象池
+     */
+    void reset(long transactionId, List<Range> applyRanges, String requestStr){
+        this.transactionId = transactionId;
+        this.applyRanges = applyRanges;
+        this.requestStr = requestStr;
+        transactionInit();
+    }
+
+    //申请前替换为规整后的范围，见{@link RangeNormalizer}
+    void setApplyRanges(List<Range> applyRanges){
+        this.applyRanges = applyRanges;
+    }
+
     private void transactionInit(){
         state = State.WAITING;
         if(applyRanges==null)
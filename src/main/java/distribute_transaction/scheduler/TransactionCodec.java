@@ -0,0 +1,224 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.ByteKey;
+import distribute_transaction.core.CompositeKey;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 事务的二进制编码，供{@link InputLog}与{@link Checkpoint}使用：事务数之后依次为
+ * 各事务的id、请求原语与范围。范围的边界支持Integer、Long、String、Double、Float、
+ * {@link CompositeKey}与{@link ByteKey}。编码缓冲区按需扩大，非线程安全
+ */
+final class TransactionCodec {
+
+    //边界的类型标记
+    private static final byte NULL_KEY = 0;
+    private static final byte INTEGER_KEY = 1;
+    private static final byte LONG_KEY = 2;
+    private static final byte STRING_KEY = 3;
+    private static final byte DOUBLE_KEY = 4;
+    private static final byte FLOAT_KEY = 5;
+    private static final byte COMPOSITE_KEY = 6;
+    private static final byte BYTE_KEY = 7;
+
+    //范围的标志位
+    private static final int WHOLE_TABLE = 1;
+    private static final int LEFT_INCLUSIVE = 2;
+    private static final int RIGHT_INCLUSIVE = 4;
+
+    private static final Lock[] LOCKS = Lock.values();
+
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+    void clear() {
+        buffer.clear();
+    }
+
+    /**
+     * 结束编码
+     * @return 从头到已写入位置的缓冲区，下次{@link #clear}之前有效
+     */
+    ByteBuffer flip() {
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 解码{@link #putTransactions}写入的事务
+     * @throws IllegalStateException    数据不完整或无法识别
+     */
+    static List<Transaction> readTransactions(ByteBuffer buffer) {
+        try {
+            int count = buffer.getInt();
+            List<Transaction> transactions = new ArrayList<Transaction>(count);
+            for (int i = 0; i < count; i++) {
+                long transactionId = buffer.getLong();
+                String requestStr = getString(buffer);
+                int rangeCount = buffer.getInt();
+                List<Range> ranges = new ArrayList<Range>(rangeCount);
+                for (int j = 0; j < rangeCount; j++)
+                    ranges.add(getRange(buffer));
+                transactions.add(new Transaction(transactionId, ranges, requestStr));
+            }
+            return transactions;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalStateException("corrupted transaction record", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Range getRange(ByteBuffer buffer) {
+        String tableName = getString(buffer);
+        Lock lockModel = LOCKS[buffer.get()];
+        int flags = buffer.get();
+        if ((flags & WHOLE_TABLE) != 0)
+            return Range.wholeTable(lockModel, tableName);
+        Comparable left = getKey(buffer);
+        Comparable right = getKey(buffer);
+        return new Range(left, (flags & LEFT_INCLUSIVE) != 0, right, (flags & RIGHT_INCLUSIVE) != 0,
+                lockModel, tableName);
+    }
+
+    private static Comparable getKey(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case NULL_KEY:
+                return null;
+            case INTEGER_KEY:
+                return buffer.getInt();
+            case LONG_KEY:
+                return buffer.getLong();
+            case STRING_KEY:
+                return getString(buffer);
+            case DOUBLE_KEY:
+                return buffer.getDouble();
+            case FLOAT_KEY:
+                return buffer.getFloat();
+            case COMPOSITE_KEY: {
+                long[] columns = new long[buffer.getInt()];
+                for (int i = 0; i < columns.length; i++)
+                    columns[i] = buffer.getLong();
+                return CompositeKey.of(columns);
+            }
+            case BYTE_KEY: {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                return ByteKey.fromBytes(bytes);
+            }
+            default:
+                throw new IllegalStateException("unknown key type " + type);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    void putTransactions(List<? extends Transaction> transactions) {
+        putInt(transactions.size());
+        for (int i = 0; i < transactions.size(); i++)
+            putTransaction(transactions.get(i));
+    }
+
+    private void putTransaction(Transaction transaction) {
+        putLong(transaction.getTransactionId());
+        putString(transaction.getRequestStr());
+        List<Range> ranges = transaction.getApplyRanges();
+        int rangeCount = ranges == null ? 0 : ranges.size();
+        putInt(rangeCount);
+        for (int i = 0; i < rangeCount; i++)
+            putRange(ranges.get(i));
+    }
+
+    private void putRange(Range range) {
+        putString(range.getTableName());
+        ensure(2);
+        buffer.put((byte) range.lockModel.ordinal());
+        if (range.isWholeTable()) {
+            buffer.put((byte) WHOLE_TABLE);
+            return;
+        }
+        buffer.put((byte) ((range.leftInclusive ? LEFT_INCLUSIVE : 0) | (range.rightInclusive ? RIGHT_INCLUSIVE : 0)));
+        putKey(range.left);
+        putKey(range.right);
+    }
+
+    private void putKey(Object key) {
+        ensure(1);
+        if (key == null) {
+            buffer.put(NULL_KEY);
+        } else if (key instanceof Integer) {
+            buffer.put(INTEGER_KEY);
+            putInt((Integer) key);
+        } else if (key instanceof Long) {
+            buffer.put(LONG_KEY);
+            putLong((Long) key);
+        } else if (key instanceof String) {
+            buffer.put(STRING_KEY);
+            putString((String) key);
+        } else if (key instanceof Double) {
+            buffer.put(DOUBLE_KEY);
+            ensure(8);
+            buffer.putDouble((Double) key);
+        } else if (key instanceof Float) {
+            buffer.put(FLOAT_KEY);
+            ensure(4);
+            buffer.putFloat((Float) key);
+        } else if (key instanceof CompositeKey) {
+            CompositeKey compositeKey = (CompositeKey) key;
+            buffer.put(COMPOSITE_KEY);
+            putInt(compositeKey.columnCount());
+            for (int i = 0; i < compositeKey.columnCount(); i++)
+                putLong(compositeKey.get(i));
+        } else if (key instanceof ByteKey) {
+            byte[] bytes = ((ByteKey) key).toBytes();
+            buffer.put(BYTE_KEY);
+            putInt(bytes.length);
+            ensure(bytes.length);
+            buffer.put(bytes);
+        } else {
+            throw new IllegalArgumentException("unsupported key type " + key.getClass().getName());
+        }
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    void putInt(int value) {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    void putLong(long value) {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    private void ensure(int extra) {
+        if (buffer.remaining() < extra) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() << 1, buffer.position() + extra));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+}
@@ -1,9 +1,10 @@
 package distribute_transaction.scheduler;
 
-import java.util.concurrent.BlockingQueue;
+import distribute_transaction.core.RingBuffer;
+import distribute_transaction.core.WaitStrategy;
+
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -12,18 +13,31 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 class TransactionExecutor extends Thread{
 
-    private BlockingQueue<Transaction> toBeExecuteTransactionQueue;
-    private BlockingQueue<Transaction> releaseQueue;
+    private final int submitBatchSize = 64;
+
+    private RingBuffer<Transaction> toBeExecuteTransactionQueue;
+    private RingBuffer<Transaction> releaseQueue;
     private ExecutorService executorService = Executors.newFixedThreadPool(1);
     AtomicInteger total = new AtomicInteger(0);
     long startTime;
 
+    private final WaitStrategy waitStrategy;
+
     private volatile boolean shutdown = true;
 
-    TransactionExecutor(BlockingQueue<Transaction> toBeExecuteTransactionQueue, BlockingQueue<Transaction> releaseQueue){
+    private final RingBuffer.Handler<Transaction> submitHandler = new RingBuffer.Handler<Transaction>() {
+        @Override
+        public void onEvent(Transaction transaction) {
+            submitTask(transaction);
+        }
+    };
+
+    TransactionExecutor(RingBuffer<Transaction> toBeExecuteTransactionQueue, RingBuffer<Transaction> releaseQueue,
+                        WaitStrategy waitStrategy){
         super("TransactionExecutor");
         this.toBeExecuteTransactionQueue = toBeExecuteTransactionQueue;
         this.releaseQueue = releaseQueue;
+        this.waitStrategy = waitStrategy;
     }
 
     public void start(){
@@ -33,15 +47,12 @@ class TransactionExecutor extends Thread{
 
     public void run(){
         startTime = System.currentTimeMillis();
+        int idleCount = 0;
         while (!shutdown || toBeExecuteTransactionQueue.size()>0){
-            Transaction transaction = null;
-            try {
-                transaction = toBeExecuteTransactionQueue.poll(300, TimeUnit.MICROSECONDS);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            if(transaction!=null){
-                submitTask(transaction);
+            if(toBeExecuteTransactionQueue.drain(submitHandler,submitBatchSize)>0){
+                idleCount = 0;
+            }else{
+                idleCount = waitStrategy.idle(idleCount);
             }
         }
     }
@@ -66,11 +77,8 @@ class TransactionExecutor extends Thread{
                     System.out.println(System.currentTimeMillis()-startTime);
                     System.out.println("finish");
                 }
-                try {
-                    releaseQueue.put(transaction);
-                } catch (InterruptedException e) {
-                    submitTask(transaction);
-                }
+                releaseQueue.put(transaction);
+                waitStrategy.signalAll();
             }
         });
     }
@@ -1,8 +1,7 @@
 package distribute_transaction.scheduler;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * 在Scheduler包中，事务的具体实现
@@ -10,69 +9,199 @@ import java.util.List;
  */
 class TransactionImpl extends Transaction{
 
-    //在等待的范围集合
-    HashSet<ApplyRange> waitingSet = new HashSet<>();
-    //已经获取得到的资源集合
-    List<ApplyRange> acquiredList = new ArrayList<>();
+    /**
+     * 尚未满足的条件数：每个未能立即获取的范围占一个计数，每个尚未完成第一次申请的
+     * 分配线程也占一个计数，另有一个计数由调度线程持有，直到分发完成。计数归零时
+     * 事务满足执行条件。并行分配时，多个分配线程会同时修改该计数
+     */
+    private volatile int pendingCount = 1;
+    //尚未释放完资源的分配线程数
+    private volatile int unreleasedPartitions = 1;
+    private static final AtomicIntegerFieldUpdater<TransactionImpl> PENDING_COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(TransactionImpl.class, "pendingCount");
+    private static final AtomicIntegerFieldUpdater<TransactionImpl> UNRELEASED_PARTITIONS =
+            AtomicIntegerFieldUpdater.newUpdater(TransactionImpl.class, "unreleasedPartitions");
+    /**
+     * 已经获取得到的资源，以{@link Range#nextAcquired}串成侵入式链表，按获取顺序排列。
+     * 单线程分配时只使用acquiredHead与acquiredTail；并行分配时每个分配线程一个链表，
+     * 下标为分配线程编号。同一张表的资源只会在其所属的分配线程中授予和释放，
+     * 因此每个链表只被一个线程访问
+     */
+    private Range acquiredHead;
+    private Range acquiredTail;
+    private Range[] partitionHeads;
+    private Range[] partitionTails;
+    /**
+     * 事务参与的分配线程及其在各分配线程中申请的范围，只在并行分配时使用。
+     * partitionResources为分发时查找到的各范围所属的表，与partitionRanges一一对应，
+     * 分配线程直接向这些表申请，不再按自己看到的目录重新查找
+     */
+    int[] partitions;
+    List<Range>[] partitionRanges;
+    List<TableResource>[] partitionResources;
     //调度器
     Scheduler scheduler;
-
-    boolean firstAllocated = true;
+    //事务是否包含整表请求
+    private boolean wholeTable;
 
     TransactionImpl(long transactionId, List<Range> applyRanges,Scheduler scheduler) {
         super(transactionId, applyRanges);
         this.scheduler = scheduler;
+        this.wholeTable = containsWholeTable(applyRanges);
     }
 
     TransactionImpl(long transactionId, List<Range> applyRanges, String requestStr, Scheduler scheduler) {
         super(transactionId, applyRanges, requestStr);
         this.scheduler = scheduler;
+        this.wholeTable = containsWholeTable(applyRanges);
+    }
+
+    /**
+     * 复用已经释放完所有资源的事务，恢复到新建时的状态。只在单线程分配时复用，
+     * 此时事务的分配与释放都在调度线程中完成
+     */
+    void reuse(long transactionId, List<Range> applyRanges, String requestStr){
+        reset(transactionId, applyRanges, requestStr);
+        this.pendingCount = 1;
+        this.unreleasedPartitions = 1;
+        this.acquiredHead = null;
+        this.acquiredTail = null;
+        this.partitionHeads = null;
+        this.partitionTails = null;
+        this.partitions = null;
+        this.partitionRanges = null;
+        this.partitionResources = null;
+        this.wholeTable = containsWholeTable(applyRanges);
+    }
+
+    private static boolean containsWholeTable(List<Range> applyRanges){
+        if(applyRanges==null)
+            return false;
+        for(int i=0;i<applyRanges.size();i++){
+            if(applyRanges.get(i).isWholeTable())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 事务是否在某张表上有整表请求
+     */
+    boolean hasWholeTableRange(String tableName){
+        if(!wholeTable)
+            return false;
+        List<Range> applyRanges = getApplyRanges();
+        for(int i=0;i<applyRanges.size();i++){
+            Range range = applyRanges.get(i);
+            if(range.isWholeTable()&&range.getTableName().equals(tableName))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 并行分配时，在分发到各分配线程之前调用
+     * @param partitionCount    分配线程总数
+     * @param partitions        事务参与的分配线程
+     * @param partitionRanges   事务在各分配线程中申请的范围，下标与partitions对应
+     * @param partitionResources    各范围所属的表，下标与partitions对应
+     */
+    void dispatchTo(int partitionCount,int[] partitions,List<Range>[] partitionRanges,
+                    List<TableResource>[] partitionResources){
+        this.partitions = partitions;
+        this.partitionRanges = partitionRanges;
+        this.partitionResources = partitionResources;
+        partitionHeads = new Range[partitionCount];
+        partitionTails = new Range[partitionCount];
+        PENDING_COUNT.addAndGet(this, partitions.length);
+        unreleasedPartitions = partitions.length;
+    }
+
+    /**
+     * @return 分配线程在partitions中的下标，事务不涉及该分配线程时返回-1
+     */
+    int indexOfPartition(int partition){
+        for(int i=0;i<partitions.length;i++){
+            if(partitions[i]==partition)
+                return i;
+        }
+        return -1;
     }
 
     /**
      * 在某资源范围内第一次申请时失败
      * @param applyRange    申请范围
      */
-    void notAcquiredImmediately(ApplyRange applyRange){
-        waitingSet.add(applyRange);
+    void notAcquiredImmediately(Range applyRange){
+        PENDING_COUNT.incrementAndGet(this);
     }
 
-    private void releaseAcquiredResource(){
-        while (!acquiredList.isEmpty()){
-            ApplyRange acquiredRange = acquiredList.remove(0);
-            acquiredRange.unboundTransaction(this);
+    //按获取顺序释放链表中的资源
+    private void releaseAcquiredResource(Range head){
+        Range range = head;
+        while (range!=null){
+            Range next = range.nextAcquired;
+            range.nextAcquired = null;
+            range.unboundTransaction(this);
+            range = next;
+        }
+    }
+
+    private void addAcquired(Range acquireRange){
+        if(partitionHeads==null){
+            if(acquiredTail==null)
+                acquiredHead = acquireRange;
+            else
+                acquiredTail.nextAcquired = acquireRange;
+            acquiredTail = acquireRange;
+        }else{
+            int partition = acquireRange.partition;
+            if(partitionTails[partition]==null)
+                partitionHeads[partition] = acquireRange;
+            else
+                partitionTails[partition].nextAcquired = acquireRange;
+            partitionTails[partition] = acquireRange;
         }
     }
 
     /**
-     * 获取得到ApplyRange范围的资源，在第一次分配时不需要从waitingSet中
-     * 移除等待中的集合外，以后都需要将相应的范围从等待集合中移除
+     * 在第一次申请时即获取得到ApplyRange范围的资源
      * @param acquireRange
      */
-    void acquireRange(ApplyRange acquireRange){
-        if(firstAllocated){
-            acquiredList.add(acquireRange);
-        }else{
-            waitingSet.remove(acquireRange);
-            acquiredList.add(acquireRange);
-            fireTransactionCheck();
-        }
+    void acquireRangeImmediately(Range acquireRange){
+        addAcquired(acquireRange);
+    }
+
+    /**
+     * 等待中的ApplyRange获取得到资源
+     * @param acquireRange
+     */
+    void acquireRange(Range acquireRange){
+        addAcquired(acquireRange);
+        fireTransactionCheck();
+    }
+
+    /**
+     * 范围请求等待中的意向锁获得，意向锁随范围一起释放，不需要加入已获取的资源
+     */
+    void tableLockAcquired(){
+        fireTransactionCheck();
     }
 
     /**
-     * 第一次申请资源完成
+     * 第一次申请资源完成，单线程分配时表示调度线程完成了全部申请，
+     * 并行分配时表示一个分配线程或调度线程完成了分发
      */
     void firstAllocatedCompleted(){
-        this.firstAllocated = false;
         fireTransactionCheck();
     }
 
     /**
-     * 检查是否应该立刻执行事务
+     * 检查是否应该立刻执行事务，只有把计数减到零的线程会触发执行
      * @return
      */
     private boolean fireTransactionCheck(){
-        if(!firstAllocated&&waitingSet.isEmpty()&&state==State.WAITING){
+        if(PENDING_COUNT.decrementAndGet(this)==0&&state==State.WAITING){
             fireTransaction();
             return true;
         }
@@ -83,10 +212,35 @@ class TransactionImpl extends Transaction{
      * 事务执行完成，释放所有资源并更新事务状态
      */
     void complete(){
-        releaseAcquiredResource();
+        if(partitionHeads==null){
+            Range head = acquiredHead;
+            acquiredHead = null;
+            acquiredTail = null;
+            releaseAcquiredResource(head);
+        }else{
+            for(int i=0;i<partitionHeads.length;i++){
+                Range head = partitionHeads[i];
+                partitionHeads[i] = null;
+                partitionTails[i] = null;
+                releaseAcquiredResource(head);
+            }
+        }
         this.state = State.FINISH;
     }
 
+    /**
+     * 并行分配时，由分配线程释放事务在该线程中获取的资源，最后一个完成释放的线程更新事务状态
+     * @param partition 分配线程编号
+     */
+    void complete(int partition){
+        Range head = partitionHeads[partition];
+        partitionHeads[partition] = null;
+        partitionTails[partition] = null;
+        releaseAcquiredResource(head);
+        if(UNRELEASED_PARTITIONS.decrementAndGet(this)==0)
+            this.state = State.FINISH;
+    }
+
     void fireTransaction(){
         this.state = State.RUNNING;
         scheduler.fireTransaction(this);
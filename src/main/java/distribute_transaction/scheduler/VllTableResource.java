@@ -0,0 +1,244 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.LongLongHashMap;
+
+import java.util.List;
+
+/**
+ * 基于VLL（Very Lightweight Locking）的整型主键表，适用于以单点申请为主的表。
+ * <p>
+ * 每个key只保存两个计数：Cx为该key上未完成的写请求数，Cs为未完成的读请求数，
+ * 打包在一个long中。申请时递增所有key的计数，写请求遇到Cx或Cs非零、读请求遇到Cx非零时，
+ * 请求进入阻塞状态；否则立即获得资源。请求本身按序号放入表的事务队列，
+ * 除计数与队列中的一个槽位外不再为请求创建任何对象。
+ * <p>
+ * 请求完成后递减计数，并从队头开始做冲突分析：阻塞的请求与队列中在它之前的所有未完成请求
+ * 都不冲突时即可获得资源，队头的请求总是可以获得资源。冲突按key判断，请求在所有与之冲突的
+ * 先前请求完成后立即获得资源；{@link TableResource}按范围判断，读范围还要等待重叠的先前
+ * 读范围获得资源，因此VLL授予的时机不会晚于范围锁。
+ * <p>
+ * 范围请求会展开为范围内的每个key，只适合窄范围；左右边界相同的范围视为锁住左边界这一个key。
+ * 覆盖的key数超过{@link #maxRangeWidth}的范围与无界的范围都会被拒绝，需要改用整表请求
+ */
+abstract class VllTableResource<T extends Comparable<T>> extends TableResource<T> {
+
+    //计数打包方式：高32位为Cx，低32位为Cs
+    private static final long ONE_EXCLUSIVE = 1L << 32;
+    private static final long SHARED_MASK = 0xFFFFFFFFL;
+
+    //一个范围请求默认最多展开的key数
+    static final long DEFAULT_MAX_RANGE_WIDTH = 4096;
+
+    private static final byte BLOCKED = 0;
+    private static final byte GRANTED = 1;
+    private static final byte FINISHED = 2;
+
+    //冲突分析时先前请求在key上的标记
+    private static final long MARK_SHARED = 1;
+    private static final long MARK_EXCLUSIVE = 2;
+
+    private final LongLongHashMap counters = new LongLongHashMap();
+
+    /**
+     * 事务队列，以请求的序号定位槽位。head之前的请求均已完成，
+     * 完成的请求只有到达队头时才会出队
+     */
+    private Range<T>[] queue;
+    private byte[] states;
+    private long head = 0;
+    private long tail = 0;
+    //队列中阻塞的请求数
+    private int blockedCount = 0;
+
+    //冲突分析时复用
+    private final LongLongHashMap marks = new LongLongHashMap();
+
+    /**
+     * 一个范围请求最多展开的key数，由配置项maxRangeWidth设置。过宽的范围会长时间占用分配线程，
+     * 并在计数表中为每个key留下一项
+     */
+    long maxRangeWidth = DEFAULT_MAX_RANGE_WIDTH;
+
+    @SuppressWarnings("unchecked")
+    VllTableResource(String tableName) {
+        super(tableName);
+        queue = new Range[64];
+        states = new byte[64];
+    }
+
+    /**
+     * 把边界值转换为long，转换必须保持原有的大小关系
+     */
+    abstract long toKey(T value);
+
+    @Override
+    void applyForRange(Range<T> applyRange) {
+        if (applyRange.left == null || applyRange.right == null)
+            throw new IllegalArgumentException("vll table can not lock unbounded range, use Range.wholeTable instead");
+        long left = leftKeyOf(applyRange);
+        long right = rightKeyOf(applyRange, left);
+        //宽度可能超出long的范围，按无符号数比较
+        if (Long.compareUnsigned(right - left, maxRangeWidth) > 0)
+            throw new IllegalArgumentException("range of vll table " + getTableName() + " covers more than "
+                    + maxRangeWidth + " keys, use Range.wholeTable instead");
+        long sequence = enqueue(applyRange);
+        applyRange.partition = partition;
+        applyRange.lockSequence = sequence;
+        acquireIntention(applyRange);
+        applyRange.lockTable = this;
+
+        boolean exclusive = applyRange.lockModel == Lock.X;
+        boolean blocked = false;
+        for (long key = left; key < right; key++) {
+            long count = counters.get(key);
+            if (exclusive)
+                blocked |= count != 0;
+            else
+                blocked |= count >= ONE_EXCLUSIVE;
+            counters.put(key, count + (exclusive ? ONE_EXCLUSIVE : 1));
+        }
+
+        TransactionImpl transaction = (TransactionImpl) applyRange.transaction;
+        if (blocked) {
+            states[indexOf(sequence)] = BLOCKED;
+            blockedCount++;
+            transaction.notAcquiredImmediately(applyRange);
+        } else {
+            states[indexOf(sequence)] = GRANTED;
+            transaction.acquireRangeImmediately(applyRange);
+        }
+    }
+
+    //VLL的申请不需要查找，批量申请即逐个申请
+    @Override
+    void applyForBatch(List<Range<T>> applyRanges) {
+        for (int i = 0; i < applyRanges.size(); i++)
+            applyFor(applyRanges.get(i));
+    }
+
+    /**
+     * 请求所属的事务完成，递减计数并尝试授予阻塞的请求
+     * @param range 已获取资源的请求
+     */
+    @Override
+    void release(Range<T> range) {
+        super.release(range);
+        if (range.isWholeTable())
+            return;
+        boolean exclusive = range.lockModel == Lock.X;
+        long left = leftKeyOf(range);
+        long right = rightKeyOf(range, left);
+        //释放后这些key上仍未完成的请求数，只有这些请求可能因本次释放获得资源
+        long touches = 0;
+        for (long key = left; key < right; key++) {
+            long count = counters.get(key) - (exclusive ? ONE_EXCLUSIVE : 1);
+            counters.put(key, count);
+            touches += (count >>> 32) + (count & SHARED_MASK);
+        }
+        states[indexOf(range.lockSequence)] = FINISHED;
+        while (head < tail && states[indexOf(head)] == FINISHED) {
+            queue[indexOf(head)] = null;
+            head++;
+        }
+        if (blockedCount > 0 && touches > 0)
+            grantUnblocked(left, right, touches);
+    }
+
+    /**
+     * 冲突分析：从队头向后扫描，记录先前未完成请求锁住的key，阻塞的请求与这些key都不冲突时
+     * 获得资源。只有与释放的key重叠的阻塞请求才可能获得资源，因此只检查这些请求，
+     * 并在见过所有与释放的key重叠的请求或所有阻塞请求后停止
+     * @param releasedLeft  释放的key范围的左边界
+     * @param releasedRight 释放的key范围的右边界，不包含
+     * @param touches       释放的key上仍未完成的请求数，按重叠的key数计
+     */
+    private void grantUnblocked(long releasedLeft, long releasedRight, long touches) {
+        int remaining = blockedCount;
+        for (long sequence = head; sequence < tail && remaining > 0 && touches > 0; sequence++) {
+            int index = indexOf(sequence);
+            if (states[index] == FINISHED)
+                continue;
+            Range<T> range = queue[index];
+            boolean exclusive = range.lockModel == Lock.X;
+            long left = leftKeyOf(range);
+            long right = rightKeyOf(range, left);
+            long overlap = Math.min(right, releasedRight) - Math.max(left, releasedLeft);
+            if (overlap > 0)
+                touches -= overlap;
+            if (states[index] == BLOCKED) {
+                remaining--;
+                if (overlap > 0 && !conflictsWithMarks(left, right, exclusive)) {
+                    states[index] = GRANTED;
+                    blockedCount--;
+                    ((TransactionImpl) range.transaction).acquireRange(range);
+                }
+            }
+            if (remaining > 0 && touches > 0) {
+                for (long key = left; key < right; key++)
+                    marks.put(key, marks.get(key) | (exclusive ? MARK_EXCLUSIVE : MARK_SHARED));
+            }
+        }
+        marks.clear();
+    }
+
+    //请求锁住的key范围为[leftKeyOf, rightKeyOf)，至少包含左边界对应的key
+    private long leftKeyOf(Range<T> range) {
+        return Range.leftKey(toKey(range.left), range.leftInclusive);
+    }
+
+    private long rightKeyOf(Range<T> range, long left) {
+        return Math.max(Range.rightKey(toKey(range.right), range.rightInclusive), left + 1);
+    }
+
+    private boolean conflictsWithMarks(long left, long right, boolean exclusive) {
+        for (long key = left; key < right; key++) {
+            long mark = marks.get(key);
+            if (exclusive ? mark != 0 : (mark & MARK_EXCLUSIVE) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    private long enqueue(Range<T> range) {
+        if (tail - head == queue.length)
+            grow();
+        long sequence = tail++;
+        queue[indexOf(sequence)] = range;
+        return sequence;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        Range<T>[] newQueue = new Range[queue.length << 1];
+        byte[] newStates = new byte[states.length << 1];
+        int newMask = newQueue.length - 1;
+        for (long sequence = head; sequence < tail; sequence++) {
+            newQueue[(int) sequence & newMask] = queue[indexOf(sequence)];
+            newStates[(int) sequence & newMask] = states[indexOf(sequence)];
+        }
+        queue = newQueue;
+        states = newStates;
+    }
+
+    private int indexOf(long sequence) {
+        return (int) sequence & (queue.length - 1);
+    }
+
+    //key上未完成的写请求数与读请求数
+    int exclusiveCount(long key) {
+        return (int) (counters.get(key) >>> 32);
+    }
+
+    int sharedCount(long key) {
+        return (int) (counters.get(key) & SHARED_MASK);
+    }
+
+    /**
+     * 事务队列中尚未出队的请求数
+     */
+    @Override
+    int size() {
+        return (int) (tail - head);
+    }
+
+}
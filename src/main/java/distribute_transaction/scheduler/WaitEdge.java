@@ -0,0 +1,41 @@
+package distribute_transaction.scheduler;
+
+/**
+ * 范围之间的一条等待关系，作为侵入式链表的结点挂在被等待的根结点上，
+ * 被等待的范围释放或获得资源时沿链表通知后续范围。
+ * 结点由所在表的{@link Pool}复用，稳定运行时申请与释放资源都不再分配对象
+ */
+final class WaitEdge {
+
+    //等待的后续范围
+    ApplyRange<?> waiter;
+    WaitEdge next;
+
+    /**
+     * 空闲结点组成的栈，每张表一个。同一张表的范围只在其所属的分配线程中申请和释放，
+     * 因此不需要同步
+     */
+    static final class Pool {
+
+        private WaitEdge free;
+
+        WaitEdge obtain(ApplyRange<?> waiter) {
+            WaitEdge edge = free;
+            if (edge == null) {
+                edge = new WaitEdge();
+            } else {
+                free = edge.next;
+                edge.next = null;
+            }
+            edge.waiter = waiter;
+            return edge;
+        }
+
+        void recycle(WaitEdge edge) {
+            edge.waiter = null;
+            edge.next = free;
+            free = edge;
+        }
+    }
+
+}
@@ -7,6 +7,7 @@ import java.util.HashSet;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by swqsh on 2017/10/18.
@@ -116,4 +117,17 @@ public class AlgUtilsTest {
         System.out.println(intSet);
     }
 
+    @Test
+    public void testCompareTuple(){
+        assertTrue(AlgUtils.compareTuple(new long[]{1,5}, new long[]{2,0})<0);
+        assertTrue(AlgUtils.compareTuple(new long[]{-1,5}, new long[]{-1,-5})>0);
+        assertEquals(0, AlgUtils.compareTuple(new long[]{3,4}, new long[]{3,4}));
+        //前缀排在以它为前缀的元组之前
+        assertTrue(AlgUtils.compareTuple(new long[]{3}, new long[]{3,Long.MIN_VALUE})<0);
+        assertTrue(AlgUtils.compareTuple(new long[]{4}, new long[]{3,Long.MAX_VALUE})>0);
+        assertTrue(CompositeKey.of(Long.MIN_VALUE, 1).compareTo(CompositeKey.of(0, 0))<0);
+        assertEquals(CompositeKey.of(1, 2), CompositeKey.of(1, 2));
+        assertEquals("(1,2)", CompositeKey.of(1, 2).toString());
+    }
+
 }
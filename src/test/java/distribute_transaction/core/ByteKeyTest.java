@@ -0,0 +1,63 @@
+package distribute_transaction.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ByteKeyTest {
+
+    private static String randomString(Random random) {
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            //包含0字符与多字节字符，不含代理对
+            int kind = random.nextInt(4);
+            builder.append(kind == 0 ? (char) random.nextInt(3) : kind == 1 ? (char) ('a' + random.nextInt(3))
+                    : (char) (0x80 + random.nextInt(0xd800 - 0x80)));
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void stringOrderIsPreserved() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            String first = randomString(random);
+            String second = randomString(random);
+            assertEquals(first + " " + second, Integer.signum(first.compareTo(second)),
+                    Integer.signum(ByteKey.of(first).compareTo(ByteKey.of(second))));
+        }
+    }
+
+    @Test
+    public void tupleOrderIsPreserved() {
+        Random random = new Random(2);
+        long[] values = {Long.MIN_VALUE, -256, -1, 0, 1, 255, 256, Long.MAX_VALUE};
+        for (int i = 0; i < 100000; i++) {
+            long[] first = new long[1 + random.nextInt(3)];
+            long[] second = new long[1 + random.nextInt(3)];
+            for (int j = 0; j < first.length; j++)
+                first[j] = random.nextBoolean() ? values[random.nextInt(values.length)] : random.nextLong();
+            for (int j = 0; j < second.length; j++)
+                second[j] = j < first.length && random.nextBoolean() ? first[j] : values[random.nextInt(values.length)];
+            assertEquals(Integer.signum(CompositeKey.of(first).compareTo(CompositeKey.of(second))),
+                    Integer.signum(ByteKey.of(first).compareTo(ByteKey.of(second))));
+        }
+    }
+
+    @Test
+    public void mixedColumnsKeepColumnOrder() {
+        ByteKey tenant = ByteKey.builder().append("acme").build();
+        ByteKey order = ByteKey.builder().append("acme").append(-5).build();
+        ByteKey longerName = ByteKey.builder().append("acme\0").append(Long.MIN_VALUE).build();
+        ByteKey nextTenant = ByteKey.builder().append("acmf").build();
+        assertTrue(tenant.compareTo(order) < 0);
+        assertTrue(order.compareTo(longerName) < 0);
+        assertTrue(longerName.compareTo(nextTenant) < 0);
+        assertEquals(ByteKey.of("acme"), tenant);
+        assertEquals(0, ByteKey.of(3, 4).compareTo(ByteKey.builder().append(3).append(4).build()));
+    }
+
+}
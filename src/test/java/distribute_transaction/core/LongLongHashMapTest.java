@@ -0,0 +1,37 @@
+package distribute_transaction.core;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongLongHashMapTest {
+
+    @Test
+    public void zeroMeansAbsent(){
+        Random random = new Random(17);
+        LongLongHashMap map = new LongLongHashMap(2);
+        Map<Long,Long> expected = new HashMap<Long,Long>();
+        for(int i=0;i<200000;i++){
+            long key = random.nextInt(2000)-1000;
+            long value = map.get(key)+(random.nextBoolean() ? 1 : -1);
+            map.put(key,value);
+            if(value==0)
+                expected.remove(key);
+            else
+                expected.put(key,value);
+            assertEquals(expected.size(),map.size());
+        }
+        for(long key=-1100;key<1100;key++){
+            Long value = expected.get(key);
+            assertEquals(value==null ? 0 : value.longValue(),map.get(key));
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(0,map.get(5));
+    }
+
+}
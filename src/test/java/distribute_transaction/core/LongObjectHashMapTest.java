@@ -0,0 +1,51 @@
+package distribute_transaction.core;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongObjectHashMapTest {
+
+    @Test
+    public void againstHashMap(){
+        Random random = new Random(13);
+        LongObjectHashMap<Long> map = new LongObjectHashMap<Long>(4);
+        Map<Long,Long> expected = new HashMap<Long,Long>();
+        for(int i=0;i<200000;i++){
+            //key集中在较小的区间，使得插入、覆盖与删除交替发生
+            long key = random.nextInt(3000)-1500;
+            if(random.nextBoolean()){
+                assertEquals(expected.put(key,(long) i),map.put(key,(long) i));
+            }else{
+                assertEquals(expected.remove(key),map.remove(key));
+            }
+            assertEquals(expected.size(),map.size());
+        }
+        for(long key=-1600;key<1600;key++){
+            assertEquals(expected.get(key),map.get(key));
+        }
+    }
+
+    @Test
+    public void keysSnapshot(){
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        map.put(Long.MIN_VALUE,"min");
+        map.put(0,"zero");
+        map.put(Long.MAX_VALUE,"max");
+        long[] keys = map.keys(new long[1]);
+        int size = map.size();
+        assertEquals(3,size);
+        long sum = 0;
+        for(int i=0;i<size;i++){
+            assertNotNull(map.remove(keys[i]));
+            sum += keys[i];
+        }
+        assertEquals(-1,sum);
+        assertTrue(map.isEmpty());
+    }
+
+}
@@ -0,0 +1,47 @@
+package distribute_transaction.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ObjectPoolTest {
+
+    @Test
+    public void boundedCapacity(){
+        ObjectPool<Object> pool = new ObjectPool<Object>(2);
+        assertNull(pool.obtain());
+        Object first = new Object();
+        Object second = new Object();
+        assertTrue(pool.recycle(first));
+        assertTrue(pool.recycle(second));
+        //池已满，多出的对象被丢弃
+        assertFalse(pool.recycle(new Object()));
+        assertEquals(2, pool.size());
+        assertEquals(1, pool.dropped());
+        assertSame(second, pool.obtain());
+        assertSame(first, pool.obtain());
+        assertNull(pool.obtain());
+    }
+
+    @Test
+    public void metrics(){
+        ObjectPool<Object> pool = new ObjectPool<Object>(4);
+        assertEquals(0, pool.hitRate(), 0);
+        Object[] objects = new Object[3];
+        for(int i=0;i<objects.length;i++){
+            assertNull(pool.obtain());
+            objects[i] = new Object();
+        }
+        assertEquals(3, pool.outstanding());
+        for(Object object:objects)
+            pool.recycle(object);
+        assertEquals(0, pool.outstanding());
+        for(int i=0;i<3;i++)
+            assertNotNull(pool.obtain());
+        assertEquals(3, pool.hits());
+        assertEquals(3, pool.misses());
+        assertEquals(0.5, pool.hitRate(), 1e-9);
+        assertEquals(3, pool.outstanding());
+    }
+
+}
@@ -0,0 +1,89 @@
+package distribute_transaction.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RingBufferTest {
+
+    @Test
+    public void offerFailsWhenFull(){
+        RingBuffer<Integer> ring = new RingBuffer<Integer>(3,new BusySpinWaitStrategy());
+        assertEquals(4,ring.capacity());
+        for(int i=0;i<4;i++)
+            assertTrue(ring.offer(i));
+        assertFalse(ring.offer(4));
+        assertEquals((Integer)0,ring.poll());
+        assertTrue(ring.offer(4));
+        for(int i=1;i<=4;i++)
+            assertEquals((Integer)i,ring.poll());
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void drainInBatches(){
+        RingBuffer<Integer> ring = new RingBuffer<Integer>(8,new BusySpinWaitStrategy());
+        final List<Integer> drained = new ArrayList<Integer>();
+        RingBuffer.Handler<Integer> handler = new RingBuffer.Handler<Integer>() {
+            @Override
+            public void onEvent(Integer element) {
+                drained.add(element);
+            }
+        };
+        for(int round=0;round<10;round++){
+            for(int i=0;i<5;i++)
+                ring.put(round*5+i);
+            assertEquals(3,ring.drain(handler,3));
+            assertEquals(2,ring.drain(handler,3));
+            assertEquals(0,ring.drain(handler,3));
+        }
+        assertEquals(50,drained.size());
+        for(int i=0;i<50;i++)
+            assertEquals((Integer)i,drained.get(i));
+    }
+
+    /**
+     * 多个生产者同时放入，缓冲区远小于元素总数，每个生产者的元素都应按放入顺序被消费
+     */
+    @Test
+    public void multipleProducersKeepTheirOrder() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 100000;
+        final RingBuffer<long[]> ring = new RingBuffer<long[]>(64,new YieldingWaitStrategy());
+        Thread[] threads = new Thread[producers];
+        for(int p=0;p<producers;p++){
+            final int producer = p;
+            threads[p] = new Thread(){
+                @Override
+                public void run() {
+                    for(int i=0;i<perProducer;i++)
+                        ring.put(new long[]{producer,i});
+                }
+            };
+            threads[p].start();
+        }
+        final long[] expected = new long[producers];
+        final int[] total = new int[1];
+        RingBuffer.Handler<long[]> handler = new RingBuffer.Handler<long[]>() {
+            @Override
+            public void onEvent(long[] element) {
+                assertEquals(expected[(int) element[0]]++,element[1]);
+                total[0]++;
+            }
+        };
+        long deadline = System.currentTimeMillis()+20000;
+        while(total[0]<producers*perProducer&&System.currentTimeMillis()<deadline){
+            if(ring.drain(handler,16)==0)
+                Thread.yield();
+        }
+        for(Thread thread:threads)
+            thread.join();
+        assertEquals(producers*perProducer,total[0]);
+        assertTrue(ring.isEmpty());
+    }
+
+}
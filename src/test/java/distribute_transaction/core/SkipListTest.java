@@ -0,0 +1,111 @@
+package distribute_transaction.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SkipListTest {
+
+    @Test
+    public void findPre(){
+        SkipList<Integer> list = new SkipList<Integer>();
+        SkipList.Node<Integer> pre = null;
+        for(int value:new int[]{1,3,6,7,10,12,13}){
+            pre = list.insertAfter(pre,value);
+        }
+        assertNull(list.findPre(1));
+        assertNull(list.findPre(0));
+        assertEquals(list.findPre(5).getValue(),(Integer)3);
+        assertEquals(list.findPre(10).getValue(),(Integer)7);
+        assertEquals(list.findPre(7).getValue(),(Integer)6);
+        assertEquals(list.findPre(15).getValue(),(Integer)13);
+        assertEquals(list.last().getValue(),(Integer)13);
+    }
+
+    @Test
+    public void duplicateKeys(){
+        SkipList<Integer> list = new SkipList<Integer>();
+        SkipList.Node<Integer> first = list.insertAfter(null,5);
+        list.insertAfter(first,5);
+        list.insertAfter(null,2);
+        assertEquals(list.findPre(5).getValue(),(Integer)2);
+        assertEquals(list.findPre(6).getValue(),(Integer)5);
+        assertEquals(list.size(),3);
+    }
+
+    @Test
+    public void findPreFromFinger(){
+        Random random = new Random(5);
+        SkipList<Integer> list = new SkipList<Integer>();
+        for(int i=0;i<5000;i++){
+            int value = random.nextInt(2000);
+            list.insertAfter(list.findPre(value),value);
+        }
+        SkipList.Node<Integer> finger = null;
+        for(int key=0;key<2100;key+=1+random.nextInt(7)){
+            SkipList.Node<Integer> expected = list.findPre(key);
+            assertSame(expected,list.findPreFrom(finger,key));
+            if(expected!=null)
+                finger = expected;
+        }
+        //finger不小于key时向前查找，已被删除时从头查找
+        SkipList.Node<Integer> last = list.last();
+        assertSame(list.findPre(10),list.findPreFrom(last,10));
+        assertNull(list.findPreFrom(last,-1));
+        list.remove(last);
+        assertSame(list.findPre(1990),list.findPreFrom(last,1990));
+    }
+
+    @Test
+    public void findPreFromFingerInBothDirections(){
+        Random random = new Random(9);
+        SkipList<Integer> list = new SkipList<Integer>();
+        for(int i=0;i<5000;i++){
+            int value = random.nextInt(2000);
+            list.insertAfter(list.findPre(value),value);
+        }
+        SkipList.Node<Integer> finger = list.first();
+        for(int i=0;i<20000;i++){
+            int key = random.nextInt(2100)-50;
+            SkipList.Node<Integer> expected = list.findPre(key);
+            assertSame(expected,list.findPreFrom(finger,key));
+            finger = expected!=null ? expected : list.next(null);
+        }
+    }
+
+    @Test
+    public void removeAndInsertAgainstSortedList(){
+        Random random = new Random(7);
+        SkipList<Integer> list = new SkipList<Integer>();
+        List<Integer> expected = new ArrayList<Integer>();
+        for(int i=0;i<20000;i++){
+            int value = random.nextInt(1000);
+            if(random.nextInt(3)==0&&!expected.isEmpty()){
+                SkipList.Node<Integer> pre = list.findPre(value);
+                SkipList.Node<Integer> target = list.next(pre);
+                if(target!=null){
+                    expected.remove(target.getValue());
+                    list.remove(target);
+                    assertFalse(target.isLinked());
+                }
+            }else{
+                list.insertAfter(list.findPre(value),value);
+                expected.add(value);
+            }
+        }
+        Collections.sort(expected);
+        assertEquals(expected.size(),list.size());
+        SkipList.Node<Integer> node = list.first();
+        for(Integer value:expected){
+            assertEquals(value,node.getValue());
+            node = list.next(node);
+        }
+        assertNull(node);
+    }
+
+}
@@ -0,0 +1,49 @@
+package distribute_transaction.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WaitStrategyTest {
+
+    @Test
+    public void idleCountSaturates() {
+        WaitStrategy[] strategies = {new BusySpinWaitStrategy(), new YieldingWaitStrategy(0),
+                new ParkingWaitStrategy(0, 0, 1, 1), new BlockingWaitStrategy(1)};
+        for (WaitStrategy strategy : strategies) {
+            assertEquals(1, strategy.idle(0));
+            assertEquals(Integer.MAX_VALUE, strategy.idle(Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void parkingBacksOffUpToMaximum() {
+        ParkingWaitStrategy strategy = new ParkingWaitStrategy(0, 0, 1000, 2000000);
+        long start = System.nanoTime();
+        strategy.idle(100);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void blockingWakesOnSignal() throws InterruptedException {
+        final BlockingWaitStrategy strategy = new BlockingWaitStrategy(TimeUnit.SECONDS.toNanos(30));
+        final CountDownLatch woken = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                strategy.idle(0);
+                woken.countDown();
+            }
+        });
+        waiter.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!woken.await(10, TimeUnit.MILLISECONDS) && System.currentTimeMillis() < deadline) {
+            strategy.signalAll();
+        }
+        assertEquals(0, woken.getCount());
+    }
+
+}
@@ -0,0 +1,103 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.ByteKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 比较String主键与按字节序编码的{@link ByteKey}主键的加锁开销，在项目根目录下运行main方法。
+ * key形如"tenant-0042/order-0000123"，相互之间有较长的公共前缀；
+ * 每个事务锁住一个小范围，读写各半，在途事务数固定，同{@link LockContentionBenchmark}。
+ * <p>
+ * "ByteKey@range"在申请时才编码，即String表在范围边界处转换为ByteKey时的开销；
+ * "ByteKey"使用预先编码的key，只比较加锁本身
+ */
+public class ByteKeyBenchmark {
+
+    private static final int TRANSACTIONS = 200000;
+    private static final int WINDOW = 128;
+    private static final int ROUNDS = 5;
+
+    interface KeyFactory<T extends Comparable<T>> {
+        T key(String value);
+    }
+
+    private static final KeyFactory<String> STRINGS = new KeyFactory<String>() {
+        @Override
+        public String key(String value) {
+            return value;
+        }
+    };
+    private static final KeyFactory<ByteKey> BYTE_KEYS = new KeyFactory<ByteKey>() {
+        @Override
+        public ByteKey key(String value) {
+            return ByteKey.of(value);
+        }
+    };
+
+    private static String[] workload(int keys, long seed) {
+        Random random = new Random(seed);
+        String[] bounds = new String[TRANSACTIONS * 2];
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            int key = random.nextInt(keys);
+            bounds[i * 2] = String.format("tenant-%04d/order-%07d", key % 64, key);
+            bounds[i * 2 + 1] = String.format("tenant-%04d/order-%07d", key % 64, key + 1 + random.nextInt(4));
+        }
+        return bounds;
+    }
+
+    /**
+     * @param encoded   为null时key已经预先编码，否则在申请时通过encoded编码
+     * @return 每个事务的平均耗时，单位纳秒，预先编码时不含key的编码
+     */
+    private static <T extends Comparable<T>> double run(KeyFactory<T> factory, String[] bounds, KeyFactory<T> encoded) {
+        List<T> keys = new ArrayList<T>(bounds.length);
+        if (encoded == null) {
+            for (String bound : bounds)
+                keys.add(factory.key(bound));
+        }
+        TableResource<T> table = new TableResource<T>("orders");
+        LockContentionBenchmark.QueueScheduler scheduler = new LockContentionBenchmark.QueueScheduler();
+        long start = System.nanoTime();
+        int inFlight = 0;
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            List<Range> ranges = new ArrayList<Range>(1);
+            T left = encoded == null ? keys.get(i * 2) : encoded.key(bounds[i * 2]);
+            T right = encoded == null ? keys.get(i * 2 + 1) : encoded.key(bounds[i * 2 + 1]);
+            ranges.add(new Range<T>(left, right, (i & 1) == 0 ? Lock.S : Lock.X, "orders"));
+            TransactionImpl transaction = new TransactionImpl(i, ranges, scheduler);
+            table.applyFor(ranges.get(0));
+            transaction.firstAllocatedCompleted();
+            inFlight++;
+            while (inFlight > WINDOW && !scheduler.fired.isEmpty()) {
+                scheduler.fired.poll().complete();
+                inFlight--;
+            }
+        }
+        while (!scheduler.fired.isEmpty()) {
+            scheduler.fired.poll().complete();
+        }
+        return (System.nanoTime() - start) / (double) TRANSACTIONS;
+    }
+
+    public static void main(String[] args) {
+        int[] keySets = {256, 4096, 1 << 20};
+        for (int keys : keySets) {
+            String[] bounds = workload(keys, keys);
+            double bestString = Double.MAX_VALUE;
+            double bestEncoded = Double.MAX_VALUE;
+            double bestBytes = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                bestString = Math.min(bestString, run(STRINGS, bounds, null));
+                bestEncoded = Math.min(bestEncoded, run(BYTE_KEYS, bounds, BYTE_KEYS));
+                bestBytes = Math.min(bestBytes, run(BYTE_KEYS, bounds, null));
+            }
+            System.out.printf("keys=%-8d %-14s %8.1f ns/txn%n", keys, "String", bestString);
+            System.out.printf("keys=%-8d %-14s %8.1f ns/txn%n", keys, "ByteKey@range", bestEncoded);
+            System.out.printf("keys=%-8d %-14s %8.1f ns/txn%n", keys, "ByteKey", bestBytes);
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.UniqueIdGenerator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Transaction transaction(long id, int left, int right, Lock lock) {
+        return new Transaction(id, new ArrayList<Range>(Arrays.<Range>asList(
+                new Range<Integer>(left, right, lock, "user"))), "request-" + id);
+    }
+
+    /**
+     * 直接通过ResourceManager调度的环境，记录正在运行（已授予、未完成）的事务
+     */
+    private static class Replica {
+        final TableResourceTest.RecordingScheduler scheduler = new TableResourceTest.RecordingScheduler();
+        final ResourceManager resourceManager = new ResourceManager(ParallelAllocationTest.CONFIG);
+        final TreeMap<Long, TransactionImpl> scheduled = new TreeMap<Long, TransactionImpl>();
+        private int firedSeen = 0;
+        final TreeSet<Long> running = new TreeSet<Long>();
+
+        void schedule(Transaction transaction) {
+            TransactionImpl transactionImpl = new TransactionImpl(transaction.getTransactionId(),
+                    transaction.getApplyRanges(), scheduler);
+            scheduled.put(transaction.getTransactionId(), transactionImpl);
+            resourceManager.schedule(transactionImpl);
+            collectFired();
+        }
+
+        //完成正在运行的事务中id满足条件的事务
+        void completeRunning(int parity) {
+            for (Long id : new ArrayList<Long>(running)) {
+                if (id % 2 == parity) {
+                    running.remove(id);
+                    scheduled.remove(id).complete();
+                }
+            }
+            collectFired();
+        }
+
+        private void collectFired() {
+            while (firedSeen < scheduler.fired.size())
+                running.add(scheduler.fired.get(firedSeen++));
+        }
+    }
+
+    private static List<List<Transaction>> workload(long seed, int epochs) {
+        Random random = new Random(seed);
+        List<List<Transaction>> workload = new ArrayList<List<Transaction>>();
+        long id = 0;
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            List<Transaction> transactions = new ArrayList<Transaction>();
+            for (int i = 0; i < 1 + random.nextInt(8); i++) {
+                int left = random.nextInt(100);
+                transactions.add(transaction(id++, left, left + 1 + random.nextInt(10),
+                        random.nextBoolean() ? Lock.S : Lock.X));
+            }
+            workload.add(transactions);
+        }
+        return workload;
+    }
+
+    /**
+     * 从检查点加上之后的日志恢复的副本，与一直运行的副本在之后每个epoch的运行事务完全相同
+     */
+    @Test
+    public void checkpointPlusSuffixMatchesOriginal() throws IOException {
+        for (long seed = 0; seed < 10; seed++) {
+            String logPath = folder.newFile().getPath();
+            String checkpointPath = folder.getRoot().getPath() + "/checkpoint-" + seed;
+            List<List<Transaction>> workload = workload(seed, 60);
+            int checkpointEpoch = 29;
+
+            Replica original = new Replica();
+            List<TreeSet<Long>> runningAfterCheckpoint = new ArrayList<TreeSet<Long>>();
+            try (InputLog log = new InputLog(logPath)) {
+                for (int epoch = 0; epoch < workload.size(); epoch++) {
+                    log.append(epoch, workload.get(epoch));
+                    for (Transaction transaction : workload.get(epoch))
+                        original.schedule(transaction);
+                    if (epoch == checkpointEpoch) {
+                        //按id顺序取出还没有完成的事务
+                        List<Transaction> live = new ArrayList<Transaction>();
+                        for (List<Transaction> transactions : workload) {
+                            for (Transaction transaction : transactions) {
+                                if (original.scheduled.containsKey(transaction.getTransactionId()))
+                                    live.add(transaction);
+                            }
+                        }
+                        Checkpoint.write(checkpointPath, epoch, live);
+                    }
+                    if (epoch >= checkpointEpoch)
+                        runningAfterCheckpoint.add(new TreeSet<Long>(original.running));
+                    original.completeRunning(epoch % 2);
+                }
+            }
+
+            final Replica recovered = new Replica();
+            Checkpoint checkpoint = Checkpoint.load(checkpointPath);
+            assertEquals(checkpointEpoch, checkpoint.getEpoch());
+            for (Transaction transaction : checkpoint.getTransactions())
+                recovered.schedule(transaction);
+            final List<TreeSet<Long>> recoveredRunning = new ArrayList<TreeSet<Long>>();
+            recoveredRunning.add(new TreeSet<Long>(recovered.running));
+            recovered.completeRunning(checkpointEpoch % 2);
+            InputLog.replay(logPath, checkpointEpoch + 1, new InputLog.Handler() {
+                @Override
+                public void onEpoch(long epoch, List<Transaction> transactions) {
+                    for (Transaction transaction : transactions)
+                        recovered.schedule(transaction);
+                    recoveredRunning.add(new TreeSet<Long>(recovered.running));
+                    recovered.completeRunning((int) (epoch % 2));
+                }
+            });
+            assertEquals(runningAfterCheckpoint, recoveredRunning);
+        }
+    }
+
+    @Test
+    public void missingOrDamagedCheckpointIsIgnored() throws IOException {
+        String path = folder.getRoot().getPath() + "/checkpoint";
+        assertNull(Checkpoint.load(path));
+        Checkpoint.write(path, 4, Arrays.asList(transaction(1, 0, 5, Lock.X), transaction(2, 3, 9, Lock.S)));
+        Checkpoint checkpoint = Checkpoint.load(path);
+        assertEquals(4, checkpoint.getEpoch());
+        assertEquals(2, checkpoint.getTransactions().size());
+        assertEquals(transaction(2, 3, 9, Lock.S).getApplyRanges(), checkpoint.getTransactions().get(1).getApplyRanges());
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        assertNull(Checkpoint.load(path));
+    }
+
+    @Test
+    public void recoverSchedulesLiveTransactionsThenSuffix() throws IOException {
+        String logPath = folder.newFile().getPath();
+        String checkpointPath = folder.getRoot().getPath() + "/checkpoint";
+        try (InputLog log = new InputLog(logPath)) {
+            log.append(0, Arrays.asList(transaction(1, 0, 1, Lock.X), transaction(2, 1, 2, Lock.X)));
+            log.append(1, Arrays.asList(transaction(3, 2, 3, Lock.X)));
+            log.append(2, Arrays.asList(transaction(4, 3, 4, Lock.X)));
+        }
+        final List<Long> scheduled = new ArrayList<Long>();
+        final List<Integer> batches = new ArrayList<Integer>();
+        Scheduler scheduler = new Scheduler() {
+            @Override
+            public void schedule(Transaction transaction) {
+                fail("recovery should submit whole batches");
+            }
+
+            @Override
+            public void scheduleAll(Collection<? extends Transaction> transactions) {
+                for (Transaction transaction : transactions)
+                    scheduled.add(transaction.getTransactionId());
+                batches.add(transactions.size());
+            }
+        };
+        assertEquals(4, Checkpoint.recover(checkpointPath, logPath, scheduler));
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), scheduled);
+        assertEquals(Arrays.asList(2, 1, 1), batches);
+
+        //事务1已经完成
+        Checkpoint.write(checkpointPath, 1, Arrays.asList(transaction(2, 1, 2, Lock.X), transaction(3, 2, 3, Lock.X)));
+        scheduled.clear();
+        batches.clear();
+        assertEquals(3, Checkpoint.recover(checkpointPath, logPath, scheduler));
+        assertEquals(Arrays.asList(2L, 3L, 4L), scheduled);
+        //检查点作为一批，之后是日志中的epoch 2
+        assertEquals(Arrays.asList(2, 1), batches);
+    }
+
+    @Test
+    public void sequencerWritesPeriodicCheckpoints() throws IOException, InterruptedException {
+        String checkpointPath = folder.getRoot().getPath() + "/checkpoint";
+        SequencerTest.EpochScheduler scheduler = new SequencerTest.EpochScheduler();
+        try (InputLog log = new InputLog(folder.newFile().getPath())) {
+            Sequencer sequencer = new Sequencer(scheduler, 5, new UniqueIdGenerator(), log);
+            sequencer.setCheckpoint(checkpointPath, 2);
+            for (int epoch = 0; epoch < 5; epoch++) {
+                sequencer.submit(new ArrayList<Range>(Arrays.<Range>asList(
+                        new Range<Integer>(epoch, epoch + 1, Lock.X, "user"))), null);
+                sequencer.sequenceEpoch();
+                sequencer.awaitCheckpoint();
+            }
+        }
+        assertEquals(3, Checkpoint.load(checkpointPath).getEpoch());
+        assertNotNull(scheduler.liveTransactions());
+    }
+
+}
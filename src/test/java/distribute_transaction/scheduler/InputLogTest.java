@@ -0,0 +1,168 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.ByteKey;
+import distribute_transaction.core.CompositeKey;
+import distribute_transaction.core.UniqueIdGenerator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class InputLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Transaction transaction(long id, Range... ranges) {
+        return new Transaction(id, new ArrayList<Range>(Arrays.asList(ranges)), "request-" + id);
+    }
+
+    private static List<Transaction> epoch(int first, int count) {
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        for (int i = first; i < first + count; i++)
+            transactions.add(transaction(i, new Range<Integer>(i, i + 1, Lock.X, "user")));
+        return transactions;
+    }
+
+    private static List<List<Transaction>> readAll(String path, long fromEpoch, final List<Long> epochs) throws IOException {
+        final List<List<Transaction>> replayed = new ArrayList<List<Transaction>>();
+        InputLog.replay(path, fromEpoch, new InputLog.Handler() {
+            @Override
+            public void onEpoch(long epoch, List<Transaction> transactions) {
+                epochs.add(epoch);
+                replayed.add(transactions);
+            }
+        });
+        return replayed;
+    }
+
+    private static void assertSameTransaction(Transaction expected, Transaction actual) {
+        assertEquals(expected.getTransactionId(), actual.getTransactionId());
+        assertEquals(expected.getRequestStr(), actual.getRequestStr());
+        assertEquals(expected.getApplyRanges(), actual.getApplyRanges());
+        for (Range range : actual.getApplyRanges())
+            assertSame(actual, range.transaction);
+    }
+
+    @Test
+    public void rangesOfAllKeyTypesRoundTrip() throws IOException {
+        String path = folder.newFile().getPath();
+        Transaction mixed = transaction(7,
+                new Range<Integer>(null, false, 5, true, Lock.S, "user"),
+                new Range<Long>(-3L, true, null, false, Lock.X, "account"),
+                Range.wholeTable(Lock.SIX, "orders"),
+                new Range<String>("a", "b中", Lock.S, "names"),
+                new Range<Double>(0.5, 1.5, Lock.S, "prices"),
+                new Range<Float>(-1f, 2f, Lock.X, "rates"),
+                new Range<CompositeKey>(CompositeKey.of(1, 2), CompositeKey.of(1), Lock.X, "shipments"),
+                new Range<ByteKey>(ByteKey.builder().append("acme").append(3).build(), ByteKey.of("acmf"), Lock.S, "tenants"));
+        Transaction empty = new Transaction(8, new ArrayList<Range>(), null);
+        try (InputLog log = new InputLog(path)) {
+            assertEquals(0, log.nextEpoch());
+            log.append(0, Arrays.asList(mixed, empty));
+        }
+        List<Long> epochs = new ArrayList<Long>();
+        List<List<Transaction>> replayed = readAll(path, 0, epochs);
+        assertEquals(Arrays.asList(0L), epochs);
+        assertSameTransaction(mixed, replayed.get(0).get(0));
+        assertSameTransaction(empty, replayed.get(0).get(1));
+        assertTrue(replayed.get(0).get(0).getApplyRanges().get(2).isWholeTable());
+    }
+
+    @Test
+    public void recordsSpanSegmentsAndReopen() throws IOException {
+        String path = folder.newFile().getPath();
+        try (InputLog log = new InputLog(path, 64)) {
+            for (int epoch = 0; epoch < 20; epoch++)
+                log.append(epoch, epoch(epoch * 10, epoch % 5));
+        }
+        try (InputLog log = new InputLog(path, 64)) {
+            assertEquals(20, log.nextEpoch());
+            log.append(25, epoch(1000, 3));
+            assertEquals(26, log.nextEpoch());
+        }
+        List<Long> epochs = new ArrayList<Long>();
+        List<List<Transaction>> replayed = readAll(path, 18, epochs);
+        assertEquals(Arrays.asList(18L, 19L, 25L), epochs);
+        assertEquals(3, replayed.get(0).size());
+        assertEquals(1002, replayed.get(2).get(2).getTransactionId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void epochsMustNotGoBack() throws IOException {
+        try (InputLog log = new InputLog(folder.newFile().getPath())) {
+            log.append(3, epoch(0, 1));
+            log.append(3, epoch(1, 1));
+        }
+    }
+
+    /**
+     * 写了一半的记录在重新打开时被丢弃，之后从该位置继续追加
+     */
+    @Test
+    public void tornRecordIsDiscarded() throws IOException {
+        String path = folder.newFile().getPath();
+        long intact;
+        try (InputLog log = new InputLog(path)) {
+            log.append(0, epoch(0, 4));
+            intact = log.size();
+            log.append(1, epoch(4, 4));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xff);
+        }
+        try (InputLog log = new InputLog(path)) {
+            assertEquals(1, log.nextEpoch());
+            assertEquals(intact, log.size());
+            log.append(1, epoch(100, 2));
+        }
+        List<Long> epochs = new ArrayList<Long>();
+        List<List<Transaction>> replayed = readAll(path, 0, epochs);
+        assertEquals(Arrays.asList(0L, 1L), epochs);
+        assertEquals(100, replayed.get(1).get(0).getTransactionId());
+    }
+
+    @Test
+    public void sequencerLogsEpochsForReplay() throws IOException {
+        String path = folder.newFile().getPath();
+        SequencerTest.EpochScheduler scheduler = new SequencerTest.EpochScheduler();
+        try (InputLog log = new InputLog(path)) {
+            Sequencer sequencer = new Sequencer(scheduler, 5, new UniqueIdGenerator(), log);
+            for (int epoch = 0; epoch < 3; epoch++) {
+                for (int i = 0; i < 4; i++)
+                    sequencer.submit(new ArrayList<Range>(Arrays.<Range>asList(
+                            new Range<Integer>(i, i + 1, Lock.X, "user"))), "request-" + epoch + "-" + i);
+                sequencer.sequenceEpoch();
+            }
+        }
+        final List<Transaction> replayed = new ArrayList<Transaction>();
+        Scheduler replayScheduler = new Scheduler() {
+            @Override
+            public void schedule(Transaction transaction) {
+                replayed.add(transaction);
+            }
+        };
+        assertEquals(12, InputLog.replay(path, replayScheduler));
+        List<Transaction> sequenced = new ArrayList<Transaction>();
+        for (List<Transaction> epoch : scheduler.epochs)
+            sequenced.addAll(epoch);
+        for (int i = 0; i < sequenced.size(); i++)
+            assertSameTransaction(sequenced.get(i), replayed.get(i));
+
+        //重启后的序列层从日志中的下一个epoch继续编号
+        try (InputLog log = new InputLog(path)) {
+            assertEquals(3, new Sequencer(scheduler, 5, new UniqueIdGenerator(), log).getEpoch());
+        }
+    }
+
+}
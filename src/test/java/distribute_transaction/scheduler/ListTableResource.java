@@ -0,0 +1,105 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.AlgUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以ArrayList保存加锁范围的原始实现，仅作为{@link TableResource}的对照实现，
+ * 用于验证两者的授予顺序完全一致
+ */
+class ListTableResource<T extends Comparable<T>> {
+
+    private List<ApplyRange<T>> lastApplyRanges = new ArrayList<ApplyRange<T>>();
+    private final WaitEdge.Pool edgePool = new WaitEdge.Pool();
+
+    void applyFor(Range<T> applyRange){
+        ApplyRange<T> newApplyRange = new ApplyRange<T>(applyRange, edgePool);
+        int indexOfPre = AlgUtils.findPreOfList(lastApplyRanges,newApplyRange);
+        applyResourceForRange(newApplyRange,indexOfPre);
+        TransactionImpl transaction = (TransactionImpl) newApplyRange.transaction;
+        if(newApplyRange.hasAcquiredAllResource()){
+            transaction.acquireRangeImmediately(newApplyRange);
+        }else {
+            transaction.notAcquiredImmediately(newApplyRange);
+        }
+    }
+
+    private void applyResourceForRange(ApplyRange<T> newApplyRange, int indexOfPre) {
+        ApplyRange<T> preRange = indexOfPre>=0 ? lastApplyRanges.get(indexOfPre):null;
+        int insertIndex = indexOfPre+1;
+
+        if(isValidRange(indexOfPre)) {
+            if (overlap(preRange, newApplyRange)) {
+                if (preRange.left.compareTo(newApplyRange.left)<=0&&preRange.right.compareTo(newApplyRange.right)>=0) {
+                    if (newApplyRange.right.compareTo(preRange.right) == 0) {
+                        preRange.right = newApplyRange.left;
+                        newApplyRange.applyOnLastApplyRange(preRange);
+                        lastApplyRanges.add(indexOfPre + 1, newApplyRange);
+                        return;
+                    } else {
+                        ApplyRange<T> childRange = preRange.newChildRange(newApplyRange);
+                        preRange.right = newApplyRange.left;
+                        newApplyRange.applyOnLastApplyRange(preRange);
+                        lastApplyRanges.add(++indexOfPre, newApplyRange);
+                        lastApplyRanges.add(++indexOfPre, childRange);
+                        return;
+                    }
+                } else {
+                    preRange.right = newApplyRange.left;
+                    newApplyRange.applyOnLastApplyRange(preRange);
+                }
+            }
+        }else{
+            if(preRange!=null)
+                insertIndex--;
+        }
+
+        while (insertIndex<lastApplyRanges.size()){
+            ApplyRange<T> currentRange = lastApplyRanges.remove(insertIndex);
+            if(currentRange.shouldRelease())
+                continue;
+            if(!overlap(newApplyRange,currentRange)) {
+                lastApplyRanges.add(insertIndex,currentRange);
+                break;
+            }
+            if(currentRange.right.compareTo(newApplyRange.right)<0){
+                newApplyRange.applyOnLastApplyRange(currentRange);
+            }else if(currentRange.right.compareTo(newApplyRange.right)==0){
+                newApplyRange.applyOnLastApplyRange(currentRange);
+                break;
+            }else{
+                currentRange.left = newApplyRange.right;
+                newApplyRange.applyOnLastApplyRange(currentRange);
+                lastApplyRanges.add(insertIndex,currentRange);
+                break;
+            }
+        }
+        lastApplyRanges.add(insertIndex, newApplyRange);
+    }
+
+    private boolean overlap(ApplyRange<T> first,ApplyRange<T> second){
+        if(first==null||second==null)
+            return false;
+        if(first.left.compareTo(second.left)==0)
+            return true;
+        else if(first.left.compareTo(second.left)<0&&first.right.compareTo(second.left)>0)
+            return true;
+        else if(first.left.compareTo(second.left)>0&&first.left.compareTo(second.right)<0)
+            return true;
+        return false;
+    }
+
+    private boolean isValidRange(int indexOfRange){
+        if(indexOfRange<0)
+            return false;
+        ApplyRange<T> validateRange = lastApplyRanges.get(indexOfRange);
+        if(validateRange.shouldRelease()){
+            lastApplyRanges.remove(indexOfRange);
+            return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,113 @@
+package distribute_transaction.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 比较范围锁与VLL在不同冲突程度下的加锁开销，在项目根目录下运行main方法。
+ * 每个事务锁住1到2个不同的key，读写各半，同时在途的事务数固定，
+ * 在途事务超过上限时完成最早被授予的事务。热点key越少冲突越多
+ */
+public class LockContentionBenchmark {
+
+    private static final int TRANSACTIONS = 200000;
+    private static final int WINDOW = 128;
+    private static final int ROUNDS = 5;
+
+    interface TableFactory {
+        TableResource<Integer> newTable();
+    }
+
+    static class QueueScheduler extends Scheduler {
+        final ArrayDeque<TransactionImpl> fired = new ArrayDeque<TransactionImpl>();
+
+        @Override
+        void fireTransaction(Transaction transaction) {
+            fired.add((TransactionImpl) transaction);
+        }
+    }
+
+    private static List<List<Range>> workload(int hotKeys, long seed) {
+        Random random = new Random(seed);
+        List<List<Range>> transactions = new ArrayList<List<Range>>(TRANSACTIONS);
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            List<Range> ranges = new ArrayList<Range>(2);
+            int first = random.nextInt(hotKeys);
+            ranges.add(new Range<Integer>(first, first + 1, random.nextBoolean() ? Lock.S : Lock.X, "user"));
+            if (random.nextBoolean() && hotKeys > 1) {
+                int second = (first + 1 + random.nextInt(hotKeys - 1)) % hotKeys;
+                ranges.add(new Range<Integer>(second, second + 1, random.nextBoolean() ? Lock.S : Lock.X, "user"));
+            }
+            transactions.add(ranges);
+        }
+        return transactions;
+    }
+
+    /**
+     * @return 每个事务的平均耗时，单位纳秒
+     */
+    @SuppressWarnings("unchecked")
+    private static double run(TableFactory factory, List<List<Range>> workload) {
+        TableResource<Integer> table = factory.newTable();
+        QueueScheduler scheduler = new QueueScheduler();
+        long start = System.nanoTime();
+        int inFlight = 0;
+        for (int i = 0; i < workload.size(); i++) {
+            List<Range> template = workload.get(i);
+            List<Range> ranges = new ArrayList<Range>(template.size());
+            for (Range range : template)
+                ranges.add(new Range<Integer>((Integer) range.left, (Integer) range.right, range.lockModel, "user"));
+            TransactionImpl transaction = new TransactionImpl(i, ranges, scheduler);
+            for (Range range : ranges)
+                table.applyFor(range);
+            transaction.firstAllocatedCompleted();
+            inFlight++;
+            while (inFlight > WINDOW && !scheduler.fired.isEmpty()) {
+                scheduler.fired.poll().complete();
+                inFlight--;
+            }
+        }
+        while (!scheduler.fired.isEmpty()) {
+            scheduler.fired.poll().complete();
+        }
+        return (System.nanoTime() - start) / (double) workload.size();
+    }
+
+    public static void main(String[] args) {
+        TableFactory[] factories = {
+                new TableFactory() {
+                    @Override
+                    public TableResource<Integer> newTable() {
+                        return new TableResource<Integer>("user");
+                    }
+                },
+                new TableFactory() {
+                    @Override
+                    public TableResource<Integer> newTable() {
+                        return new IntTableResource("user");
+                    }
+                },
+                new TableFactory() {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public TableResource<Integer> newTable() {
+                        return TableResourceFactory.newTableResource("user", "Integer", "vll");
+                    }
+                }
+        };
+        String[] names = {"range(generic)", "range(int)", "vll"};
+        int[] hotKeySets = {16, 256, 4096, 1 << 20};
+        for (int hotKeys : hotKeySets) {
+            List<List<Range>> workload = workload(hotKeys, hotKeys);
+            for (int f = 0; f < factories.length; f++) {
+                double best = Double.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++)
+                    best = Math.min(best, run(factories[f], workload));
+                System.out.printf("hotKeys=%-8d %-15s %8.1f ns/txn%n", hotKeys, names[f], best);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.BlockingWaitStrategy;
+import distribute_transaction.core.ParkingWaitStrategy;
+import distribute_transaction.core.WaitStrategy;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ParallelAllocationTest {
+
+    static final String CONFIG = "./src/test/resources/tables.json";
+    static final String[] TABLES = {"user", "account", "orders", "stock", "ledger"};
+
+    /**
+     * 只记录满足执行条件的事务，不交给执行线程池，由测试决定何时释放。
+     * 单线程分配时释放后的事务对象会被复用，因此在执行时记下事务Id
+     */
+    static class RecordingScheduler extends Scheduler {
+        final List<TransactionImpl> fired = new ArrayList<>();
+        final Set<Long> firedIds = new HashSet<>();
+
+        RecordingScheduler(String configPath, int allocatorCount, WaitStrategy waitStrategy) {
+            super(configPath, allocatorCount, waitStrategy);
+        }
+
+        @Override
+        synchronized void fireTransaction(Transaction transaction) {
+            fired.add((TransactionImpl) transaction);
+            firedIds.add(transaction.getTransactionId());
+        }
+
+        synchronized List<TransactionImpl> firedSnapshot() {
+            return new ArrayList<>(fired);
+        }
+
+        synchronized Set<Long> firedIdsSnapshot() {
+            return new HashSet<>(firedIds);
+        }
+    }
+
+    private RecordingScheduler scheduler;
+
+    static List<Range> newRanges(int[][] specs) {
+        List<Range> ranges = new ArrayList<Range>();
+        for (int[] spec : specs) {
+            String table = TABLES[spec[3]];
+            Lock lock = spec[2] == 0 ? Lock.S : Lock.X;
+            if (table.equals("account") || table.equals("ledger"))
+                ranges.add(new Range<Long>((long) spec[0], (long) spec[1], lock, table));
+            else
+                ranges.add(new Range<Integer>(spec[0], spec[1], lock, table));
+        }
+        return ranges;
+    }
+
+    private List<TransactionImpl> awaitFired(int expectedCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (scheduler.firedSnapshot().size() < expectedCount && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        TimeUnit.MILLISECONDS.sleep(20);
+        return scheduler.firedSnapshot();
+    }
+
+    /**
+     * 每一轮释放当前所有在执行的事务，要求并行分配得到的可执行事务集合与单线程分配完全一致
+     */
+    @Test
+    public void sameGrantsAsSingleThreadAllocation() throws InterruptedException {
+        assertSameGrants(new ParkingWaitStrategy(), 2, 1);
+    }
+
+    @Test
+    public void sameGrantsWithBlockingWait() throws InterruptedException {
+        assertSameGrants(new BlockingWaitStrategy(), 2, 1);
+    }
+
+    /**
+     * 通过scheduleAll整批提交，批的大小不整除缓冲区容量，跨越缓冲区边界的批也要保持顺序
+     */
+    @Test
+    public void sameGrantsWithBatchedSchedule() throws InterruptedException {
+        assertSameGrants(new ParkingWaitStrategy(), 1, 37);
+        tearDown();
+        assertSameGrants(new ParkingWaitStrategy(), 2, 37);
+    }
+
+    private void assertSameGrants(WaitStrategy waitStrategy, int allocatorCount, int batchSize)
+            throws InterruptedException {
+        scheduler = new RecordingScheduler(CONFIG, allocatorCount, waitStrategy);
+        scheduler.start();
+        TableResourceTest.RecordingScheduler reference = new TableResourceTest.RecordingScheduler();
+        ResourceManager referenceManager = new ResourceManager(CONFIG);
+        List<TransactionImpl> referenceTransactions = new ArrayList<>();
+
+        Random random = new Random(11);
+        int transactionCount = 300;
+        List<Transaction> batch = new ArrayList<>();
+        for (int id = 0; id < transactionCount; id++) {
+            int[][] specs = new int[1 + random.nextInt(3)][];
+            //同一事务的范围落在不同区段，避免事务自身的范围互相等待
+            for (int j = 0; j < specs.length; j++) {
+                int left = j * 40 + random.nextInt(20);
+                specs[j] = new int[]{left, left + 1 + random.nextInt(15), random.nextInt(2), random.nextInt(TABLES.length)};
+            }
+            batch.add(new Transaction(id, newRanges(specs), "transaction" + id));
+            if (batch.size() == batchSize || id == transactionCount - 1) {
+                if (batchSize == 1)
+                    scheduler.schedule(batch.get(0));
+                else
+                    scheduler.scheduleAll(batch);
+                batch.clear();
+            }
+            TransactionImpl referenceTransaction = new TransactionImpl(id, newRanges(specs), reference);
+            referenceTransactions.add(referenceTransaction);
+            referenceManager.schedule(referenceTransaction);
+        }
+
+        int released = 0;
+        while (released < transactionCount) {
+            List<TransactionImpl> fired = awaitFired(reference.fired.size());
+            assertEquals(new HashSet<>(reference.fired), scheduler.firedIdsSnapshot());
+            assertEquals(reference.fired.size(), fired.size());
+
+            List<Long> running = new ArrayList<>(reference.fired.subList(released, reference.fired.size()));
+            assertFalse(running.isEmpty());
+            for (TransactionImpl transaction : fired.subList(released, fired.size())) {
+                scheduler.releaseTransactions.put(transaction);
+            }
+            for (Long id : running) {
+                referenceTransactions.get(id.intValue()).complete();
+            }
+            released += running.size();
+        }
+        //单线程分配时释放完的事务对象全部回到池中
+        if (allocatorCount == 1) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (scheduler.getTransactionPool().size() < transactionCount && System.currentTimeMillis() < deadline)
+                TimeUnit.MILLISECONDS.sleep(5);
+            assertEquals(transactionCount, scheduler.getTransactionPool().size());
+            assertEquals(0, scheduler.getTransactionPool().outstanding());
+        }
+    }
+
+    /**
+     * 对象池的统计通过调度器的公开方法读取：逐个执行并释放事务，稳定运行后事务与范围都来自对象池，
+     * 全部释放后没有在外的对象
+     */
+    @Test
+    public void poolMetricsAreReadable() throws InterruptedException {
+        scheduler = new RecordingScheduler(CONFIG, 1, new ParkingWaitStrategy());
+        assertEquals(0, scheduler.getTransactionPoolHitRate(), 0);
+        assertEquals(0, scheduler.getRangePoolHitRate(), 0);
+        scheduler.start();
+        int transactionCount = 500;
+        for (int id = 0; id < transactionCount; id++) {
+            scheduler.schedule(new Transaction(id, newRanges(new int[][]{{id % 8, id % 8 + 1, 1, 0}}), null));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (scheduler.firedSnapshot().size() <= id && System.currentTimeMillis() < deadline)
+                Thread.yield();
+            scheduler.releaseTransactions.put(scheduler.firedSnapshot().get(id));
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((scheduler.getOutstandingTransactions() > 0 || scheduler.getOutstandingRanges() > 0)
+                && System.currentTimeMillis() < deadline)
+            TimeUnit.MILLISECONDS.sleep(5);
+        assertEquals(0, scheduler.getOutstandingTransactions());
+        assertEquals(0, scheduler.getOutstandingRanges());
+        assertTrue(scheduler.getTransactionPoolHitRate() > 0.9);
+        assertTrue(scheduler.getRangePoolHitRate() > 0.9);
+    }
+
+    @Test
+    public void partitionFollowsAllocatorGroup() {
+        ResourceManager resourceManager = new ResourceManager(CONFIG);
+        resourceManager.partition(2);
+        assertEquals(0, resourceManager.getTableResource("user").partition);
+        assertEquals(1, resourceManager.getTableResource("account").partition);
+        assertEquals(0, resourceManager.getTableResource("orders").partition);
+    }
+
+    @After
+    public void tearDown() {
+        if (scheduler != null)
+            scheduler.close();
+    }
+
+}
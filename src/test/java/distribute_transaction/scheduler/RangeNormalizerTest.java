@@ -0,0 +1,111 @@
+package distribute_transaction.scheduler;
+
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RangeNormalizerTest {
+
+    private static Range<Integer> range(int left, boolean leftInclusive, int right, boolean rightInclusive, Lock lock) {
+        return new Range<Integer>(left, leftInclusive, right, rightInclusive, lock, "user");
+    }
+
+    private static Range<Integer> range(int left, int right, Lock lock) {
+        return new Range<Integer>(left, right, lock, "user");
+    }
+
+    private static TableCatalog tables(int userThreshold) {
+        TableCatalog tables = new TableCatalog();
+        TableResource<Integer> user = new TableResource<Integer>("user");
+        user.escalationThreshold = userThreshold;
+        tables.register(user);
+        tables.register(new LongTableResource("account"));
+        return tables;
+    }
+
+    @Test
+    public void mergesOverlappingAndAdjacentRanges() {
+        Range<Long> account = new Range<Long>(0L, 3L, Lock.X, "account");
+        List<Range> ranges = Arrays.<Range>asList(range(0, 5, Lock.S), account, range(5, 8, Lock.S),
+                range(3, 4, Lock.X), range(10, 12, Lock.S), range(12, false, 15, false, Lock.S));
+        List<Range> normalized = RangeNormalizer.normalize(ranges, tables(0));
+        //[0,5)与[5,8)首尾相接，[3,4)的写锁使合并后的范围升级为写锁；[10,12)与(12,15)之间还有12
+        assertEquals(Arrays.<Range>asList(range(0, 8, Lock.X), range(10, 12, Lock.S),
+                range(12, false, 15, false, Lock.S), account), normalized);
+        assertSame(account, normalized.get(3));
+    }
+
+    @Test
+    public void keepsRangesOfDistinctTables() {
+        List<Range> ranges = Arrays.<Range>asList(range(0, 5, Lock.S), new Range<Long>(0L, 3L, Lock.X, "account"));
+        assertSame(ranges, RangeNormalizer.normalize(ranges, tables(0)));
+    }
+
+    @Test
+    public void escalatesAboveThreshold() {
+        List<Range> ranges = new ArrayList<Range>();
+        for (int i = 4; i >= 0; i--)
+            ranges.add(range(i * 10, i * 10 + 2, i == 3 ? Lock.X : Lock.S));
+        ranges.add(Range.<Integer>wholeTable(Lock.S, "user"));
+        assertEquals(6, RangeNormalizer.normalize(ranges, tables(5)).size());
+        //整表请求保持不变，其余范围升级为覆盖它们的一个写范围
+        assertEquals(Arrays.<Range>asList(Range.<Integer>wholeTable(Lock.S, "user"), range(0, 42, Lock.X)),
+                RangeNormalizer.normalize(ranges, tables(4)));
+    }
+
+    /**
+     * 事务自身重叠的范围规整后不会互相等待
+     */
+    @Test
+    public void overlappingRangesOfOneTransactionDoNotSelfWait() {
+        TableResourceTest.RecordingScheduler scheduler = new TableResourceTest.RecordingScheduler();
+        ResourceManager resourceManager = new ResourceManager(ParallelAllocationTest.CONFIG);
+        List<Range> ranges = new ArrayList<Range>(Arrays.<Range>asList(range(0, 10, Lock.X), range(5, 15, Lock.S)));
+        TransactionImpl transaction = new TransactionImpl(1, ranges, scheduler);
+        resourceManager.schedule(transaction);
+        assertEquals(Arrays.asList(1L), scheduler.fired);
+        assertEquals(1, transaction.getApplyRanges().size());
+        assertSame(transaction, transaction.getApplyRanges().get(0).transaction);
+    }
+
+    @Test
+    public void loadsEscalationThresholdFromConfig() {
+        ResourceManager resourceManager = new ResourceManager(ParallelAllocationTest.CONFIG);
+        assertEquals(2, resourceManager.getTableResource("orders").escalationThreshold);
+        assertEquals(0, resourceManager.getTableResource("user").escalationThreshold);
+    }
+
+    /**
+     * VLL表按key加锁，升级后的范围会展开稀疏key之间的所有key，配置升级阈值时拒绝
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void vllTablesRejectEscalation() {
+        new ResourceManager(ParallelAllocationTest.CONFIG).register(new JsonParser().parse(
+                "{\"tableName\":\"points\",\"type\":\"Long\",\"lockMode\":\"vll\",\"escalateAbove\":4}")
+                .getAsJsonObject());
+    }
+
+    @Test
+    public void loadsVllRangeWidth() {
+        ResourceManager resourceManager = new ResourceManager(ParallelAllocationTest.CONFIG);
+        assertEquals(VllTableResource.DEFAULT_MAX_RANGE_WIDTH,
+                ((VllTableResource) resourceManager.getTableResource("stock")).maxRangeWidth);
+        resourceManager.register(new JsonParser().parse(
+                "{\"tableName\":\"points\",\"type\":\"Long\",\"lockMode\":\"vll\",\"maxRangeWidth\":64}")
+                .getAsJsonObject());
+        assertEquals(64, ((VllTableResource) resourceManager.getTableResource("points")).maxRangeWidth);
+        try {
+            resourceManager.register(new JsonParser().parse(
+                    "{\"tableName\":\"ranges\",\"type\":\"Long\",\"maxRangeWidth\":64}").getAsJsonObject());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertNull(resourceManager.getTableResource("ranges"));
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.UniqueIdGenerator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SequencerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 不启动线程，只记录每个epoch交给调度器的事务
+     */
+    static class EpochScheduler extends Scheduler {
+        final List<List<Transaction>> epochs = Collections.synchronizedList(new ArrayList<List<Transaction>>());
+
+        @Override
+        public void scheduleAll(Collection<? extends Transaction> transactions) {
+            epochs.add(new ArrayList<Transaction>(transactions));
+        }
+    }
+
+    private static List<Range> ranges(int key) {
+        return new ArrayList<Range>(Arrays.<Range>asList(new Range<Integer>(key, key + 1, Lock.X, "user")));
+    }
+
+    @Test
+    public void epochKeepsArrivalOrder() {
+        EpochScheduler scheduler = new EpochScheduler();
+        Sequencer sequencer = new Sequencer(scheduler, 5);
+        assertEquals(0, sequencer.sequenceEpoch());
+        for (int i = 0; i < 100; i++)
+            sequencer.submit(ranges(i), "request-" + i);
+        assertEquals(100, sequencer.sequenceEpoch());
+        sequencer.submit(ranges(100), "request-100");
+        assertEquals(1, sequencer.sequenceEpoch());
+
+        assertEquals(2, sequencer.getEpoch());
+        assertEquals(2, scheduler.epochs.size());
+        long lastId = Long.MIN_VALUE;
+        int next = 0;
+        for (List<Transaction> epoch : scheduler.epochs) {
+            for (Transaction transaction : epoch) {
+                assertEquals("request-" + next++, transaction.getRequestStr());
+                assertTrue(transaction.getTransactionId() > lastId);
+                assertSame(transaction, transaction.getApplyRanges().get(0).transaction);
+                lastId = transaction.getTransactionId();
+            }
+        }
+    }
+
+    @Test
+    public void closeFlushesLastEpoch() throws InterruptedException {
+        EpochScheduler scheduler = new EpochScheduler();
+        Sequencer sequencer = new Sequencer(scheduler, 1000);
+        sequencer.start();
+        for (int i = 0; i < 10; i++)
+            sequencer.submit(ranges(i), null);
+        sequencer.close();
+        sequencer.join(5000);
+        assertFalse(sequencer.isAlive());
+        assertEquals(1, scheduler.epochs.size());
+        assertEquals(10, scheduler.epochs.get(0).size());
+    }
+
+    @Test
+    public void epochsAreTimed() throws InterruptedException {
+        EpochScheduler scheduler = new EpochScheduler();
+        Sequencer sequencer = new Sequencer(scheduler, 2);
+        sequencer.start();
+        sequencer.submit(ranges(0), null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sequencer.getEpoch() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(1, sequencer.getEpoch());
+        sequencer.submit(ranges(1), null);
+        while (sequencer.getEpoch() == 1 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        sequencer.close();
+        sequencer.join(5000);
+        assertEquals(2, scheduler.epochs.size());
+    }
+
+    /**
+     * 客户端线程提交的同时关闭，被接受的请求都在最后一个epoch之前交给调度器，之后的请求被拒绝
+     */
+    @Test
+    public void closeRejectsLateSubmits() throws InterruptedException {
+        EpochScheduler scheduler = new EpochScheduler();
+        final Sequencer sequencer = new Sequencer(scheduler, 1);
+        sequencer.start();
+        final AtomicInteger accepted = new AtomicInteger();
+        Thread[] clients = new Thread[4];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = new Thread("client-" + i) {
+                @Override
+                public void run() {
+                    for (int key = 0; ; key++) {
+                        try {
+                            sequencer.submit(ranges(key), null);
+                        } catch (IllegalStateException e) {
+                            return;
+                        }
+                        accepted.incrementAndGet();
+                    }
+                }
+            };
+            clients[i].start();
+        }
+        Thread.sleep(20);
+        sequencer.close();
+        for (Thread client : clients)
+            client.join(5000);
+        sequencer.join(5000);
+        assertFalse(sequencer.isAlive());
+        int scheduled = 0;
+        for (List<Transaction> epoch : scheduler.epochs)
+            scheduled += epoch.size();
+        assertTrue(accepted.get() > 0);
+        assertEquals(accepted.get(), scheduled);
+        try {
+            sequencer.submit(ranges(0), null);
+            fail();
+        } catch (IllegalStateException e) {
+            assertNull(sequencer.getFailure());
+        }
+    }
+
+    /**
+     * 写日志失败后线程退出，失败的epoch保留下来，之后的请求被拒绝
+     */
+    @Test
+    public void logFailureStopsSequencer() throws IOException, InterruptedException {
+        EpochScheduler scheduler = new EpochScheduler();
+        InputLog failingLog = new InputLog(folder.newFile().getPath()) {
+            @Override
+            public void append(long epoch, List<? extends Transaction> transactions) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        Sequencer sequencer = new Sequencer(scheduler, 1000, new UniqueIdGenerator(), failingLog);
+        sequencer.start();
+        for (int i = 0; i < 3; i++)
+            sequencer.submit(ranges(i), "request-" + i);
+        sequencer.close();
+        sequencer.join(5000);
+        assertFalse(sequencer.isAlive());
+        assertTrue(sequencer.getFailure() instanceof UncheckedIOException);
+        assertTrue(scheduler.epochs.isEmpty());
+        assertEquals(0, sequencer.getEpoch());
+        List<Transaction> failed = sequencer.getFailedTransactions();
+        assertEquals(3, failed.size());
+        for (int i = 0; i < failed.size(); i++)
+            assertEquals("request-" + i, failed.get(i).getRequestStr());
+        try {
+            sequencer.submit(ranges(3), "request-3");
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(sequencer.getFailure(), e.getCause());
+        }
+        failingLog.close();
+    }
+
+}
@@ -0,0 +1,382 @@
+package distribute_transaction.scheduler;
+
+import com.google.gson.JsonParser;
+import distribute_transaction.core.ParkingWaitStrategy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class TableCatalogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static TransactionImpl transaction(long id, String tableName, Lock lock, Scheduler scheduler) {
+        return new TransactionImpl(id, new ArrayList<Range>(Arrays.<Range>asList(
+                new Range<Integer>(0, 10, lock, tableName))), scheduler);
+    }
+
+    private static void writeConfig(File file, String config) throws IOException {
+        Files.write(file.toPath(), config.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void idsFollowRegistrationOrder() {
+        TableCatalog catalog = new TableCatalog();
+        for (int i = 0; i < 10; i++)
+            assertEquals(i, catalog.register(new TableResource<Integer>("t" + i)));
+        assertEquals(10, catalog.size());
+        assertEquals(9, catalog.get("t9").tableId);
+        assertSame(catalog.get(3), catalog.get("t3"));
+        assertEquals(-1, catalog.idOf("missing"));
+        assertNull(catalog.get("missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateTable() {
+        TableCatalog catalog = new TableCatalog();
+        catalog.register(new TableResource<Integer>("user"));
+        catalog.register(new TableResource<Integer>("user"));
+    }
+
+    @Test
+    public void resolveCachesTableId() {
+        TableCatalog catalog = new TableCatalog();
+        catalog.register(new TableResource<Integer>("user"));
+        TableResource account = new LongTableResource("account");
+        catalog.register(account);
+        Range<Long> range = new Range<Long>(0L, 3L, Lock.X, "account");
+        assertSame(account, catalog.resolve(range));
+        assertEquals(1, range.tableId);
+        assertSame(account, catalog.resolve(range));
+
+        //编号来自其他目录或者设置错误时按表名重新查找
+        range.setTableId(0);
+        assertSame(account, catalog.resolve(range));
+        assertEquals(1, range.tableId);
+        range.setTableId(7);
+        assertSame(account, catalog.resolve(range));
+        assertEquals(1, range.tableId);
+
+        Range<Integer> missing = new Range<Integer>(0, 3, Lock.S, "missing");
+        assertNull(catalog.resolve(missing));
+        assertEquals(-1, missing.tableId);
+    }
+
+    @Test
+    public void schedulerExposesConfiguredIds() {
+        ResourceManager resourceManager = new ResourceManager(ParallelAllocationTest.CONFIG);
+        int ordersId = resourceManager.getTableId("orders");
+        assertTrue(ordersId >= 0);
+        assertEquals(ordersId, resourceManager.getTableResource("orders").tableId);
+        assertEquals(-1, resourceManager.getTableId("missing"));
+    }
+
+    @Test
+    public void retiredIdsAreNotReused() {
+        TableCatalog catalog = new TableCatalog();
+        catalog.register(new TableResource<Integer>("user"));
+        Range<Integer> range = new Range<Integer>(0, 3, Lock.X, "user");
+        assertNotNull(catalog.resolve(range));
+
+        TableCatalog next = catalog.copy();
+        assertNotNull(next.retire("user"));
+        assertNull(next.retire("user"));
+        assertEquals(1, next.register(new TableResource<Integer>("user")));
+        //原目录不受影响
+        assertEquals(0, catalog.idOf("user"));
+        assertNull(next.get(0));
+        assertSame(next.get(1), next.resolve(range));
+        assertEquals(1, range.tableId);
+        assertEquals(2, next.size());
+    }
+
+    @Test
+    public void tablesRegisteredAndRetiredAtRuntime() {
+        TableResourceTest.RecordingScheduler scheduler = new TableResourceTest.RecordingScheduler();
+        ResourceManager resourceManager = new ResourceManager(ParallelAllocationTest.CONFIG);
+        int auditId = resourceManager.register(new JsonParser().parse(
+                "{\"tableName\":\"audit\",\"type\":\"Integer\"}").getAsJsonObject());
+        assertEquals(auditId, resourceManager.getTableId("audit"));
+        resourceManager.schedule(transaction(1, "audit", Lock.X, scheduler));
+        resourceManager.schedule(transaction(2, "audit", Lock.X, scheduler));
+        assertEquals(Arrays.asList(1L), scheduler.fired);
+
+        //移除后的申请不再加锁，已经申请的范围照常授予
+        assertTrue(resourceManager.retire("audit"));
+        assertFalse(resourceManager.retire("audit"));
+        TransactionImpl unlocked = transaction(3, "audit", Lock.X, scheduler);
+        resourceManager.schedule(unlocked);
+        assertEquals(Arrays.asList(1L, 3L), scheduler.fired);
+        assertEquals(-1, resourceManager.getTableId("audit"));
+        //整理与划分分配线程时跳过已移除的表
+        resourceManager.compact(1000000, -1);
+        resourceManager.partition(2);
+        assertEquals(0, resourceManager.getTableId("user"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registeringExistingTableFails() {
+        new ResourceManager(ParallelAllocationTest.CONFIG).register(new JsonParser().parse(
+                "{\"tableName\":\"user\",\"type\":\"Integer\"}").getAsJsonObject());
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void missingConfigThrows() {
+        new ResourceManager(folder.getRoot().getPath() + "/missing.json");
+    }
+
+    /**
+     * 重新加载时未改变的表保留加锁状态，删除的表被移除，只改变升级阈值的表原地修改
+     */
+    @Test
+    public void reloadKeepsUnchangedTables() throws IOException {
+        File config = folder.newFile("tables.json");
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\"},{\"tableName\":\"account\",\"type\":\"Long\"}]");
+        ResourceManager resourceManager = new ResourceManager(config.getPath());
+        TableResource user = resourceManager.getTableResource("user");
+        TableResource account = resourceManager.getTableResource("account");
+        assertFalse(resourceManager.reload());
+
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\"},"
+                + "{\"tableName\":\"account\",\"type\":\"Long\",\"escalateAbove\":3},"
+                + "{\"tableName\":\"audit\",\"type\":[\"Long\",\"Long\"]}]");
+        assertTrue(resourceManager.reload());
+        assertSame(user, resourceManager.getTableResource("user"));
+        assertSame(account, resourceManager.getTableResource("account"));
+        assertEquals(3, account.escalationThreshold);
+        assertEquals(2, resourceManager.getTableId("audit"));
+
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\"}");
+        try {
+            resourceManager.reload();
+            fail();
+        } catch (IllegalArgumentException e) {
+            //配置有误时目录不变
+            assertEquals(2, resourceManager.getTableId("audit"));
+        }
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\"}]");
+        assertTrue(resourceManager.reload());
+        assertEquals(-1, resourceManager.getTableId("audit"));
+        assertSame(user, resourceManager.getTableResource("user"));
+    }
+
+    /**
+     * 已注册的表不能改变主键类型，需要先从配置中删除，等事务完成后再按新配置加入
+     */
+    @Test
+    public void structuralChangeRequiresRemovingTable() throws IOException {
+        File config = folder.newFile("structural.json");
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\"}]");
+        TableResourceTest.RecordingScheduler scheduler = new TableResourceTest.RecordingScheduler();
+        ResourceManager resourceManager = new ResourceManager(config.getPath());
+        TableResource user = resourceManager.getTableResource("user");
+        TransactionImpl holder = transaction(1, "user", Lock.X, scheduler);
+        resourceManager.schedule(holder);
+        holder.complete();
+
+        //表上已经没有请求也不能直接改变
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\",\"lockMode\":\"vll\",\"allocator\":1}]");
+        try {
+            resourceManager.reload();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertSame(user, resourceManager.getTableResource("user"));
+            assertEquals(-1, user.allocatorGroup);
+        }
+
+        writeConfig(config, "[]");
+        assertTrue(resourceManager.reload());
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\",\"lockMode\":\"vll\",\"allocator\":1}]");
+        assertTrue(resourceManager.reload());
+        TableResource rebuilt = resourceManager.getTableResource("user");
+        assertTrue(rebuilt instanceof VllTableResource);
+        assertEquals(1, rebuilt.allocatorGroup);
+    }
+
+    /**
+     * 事务分发之后、分配之前加载改变冲突预过滤器的配置，加载被拒绝，
+     * 已分发的事务与之后的事务仍在同一张表上排序，不会同时得到冲突的锁
+     */
+    @Test
+    public void structuralReloadBetweenDispatchAndAllocation() throws IOException {
+        File config = folder.newFile("filter.json");
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\",\"allocator\":0}]");
+        TableResourceTest.RecordingScheduler scheduler = new TableResourceTest.RecordingScheduler();
+        ResourceManager resourceManager = new ResourceManager(config.getPath());
+        resourceManager.partition(2);
+        TableAllocator[] allocators = new TableAllocator[2];
+        for (int i = 0; i < allocators.length; i++)
+            allocators[i] = new TableAllocator(i, resourceManager, scheduler, new ParkingWaitStrategy());
+        TableResource user = resourceManager.getTableResource("user");
+        TransactionImpl first = transaction(1, "user", Lock.X, scheduler);
+        resourceManager.dispatch(first, allocators);
+
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\",\"allocator\":0,\"bucketWidth\":16}]");
+        try {
+            resourceManager.reload();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertSame(user, resourceManager.getTableResource("user"));
+        }
+        resourceManager.scheduleBatch(Arrays.asList(first), 0);
+        TransactionImpl second = transaction(2, "user", Lock.X, scheduler);
+        resourceManager.dispatch(second, allocators);
+        resourceManager.scheduleBatch(Arrays.asList(second), 0);
+        assertEquals(Arrays.asList(1L), scheduler.fired);
+
+        first.complete();
+        assertEquals(Arrays.asList(1L, 2L), scheduler.fired);
+    }
+
+    /**
+     * 并行分配时只改变分配线程分组也不能把表换到另一个分配线程
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void reloadKeepsTablesOnTheirAllocator() throws IOException {
+        File config = folder.newFile("allocator.json");
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\",\"allocator\":0}]");
+        ResourceManager resourceManager = new ResourceManager(config.getPath());
+        resourceManager.partition(2);
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\",\"allocator\":2}]");
+        assertTrue(resourceManager.reload());
+        assertEquals(2, resourceManager.getTableResource("user").allocatorGroup);
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\",\"allocator\":1}]");
+        resourceManager.reload();
+    }
+
+    /**
+     * 分发之后表被移除并重新注册到另一个分配线程，分配线程仍向分发时的表申请，
+     * 不会改动属于其他分配线程的同名新表
+     */
+    @Test
+    public void allocatorsApplyToTablesResolvedAtDispatch() throws IOException {
+        File config = folder.newFile("dispatch.json");
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\",\"allocator\":0}]");
+        TableResourceTest.RecordingScheduler scheduler = new TableResourceTest.RecordingScheduler();
+        ResourceManager resourceManager = new ResourceManager(config.getPath());
+        resourceManager.partition(2);
+        TableAllocator[] allocators = new TableAllocator[2];
+        for (int i = 0; i < allocators.length; i++)
+            allocators[i] = new TableAllocator(i, resourceManager, scheduler, new ParkingWaitStrategy());
+        TableResource user = resourceManager.getTableResource("user");
+        TransactionImpl transaction = transaction(1, "user", Lock.X, scheduler);
+        resourceManager.dispatch(transaction, allocators);
+
+        writeConfig(config, "[]");
+        assertTrue(resourceManager.reload());
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\",\"allocator\":1}]");
+        assertTrue(resourceManager.reload());
+        TableResource replacement = resourceManager.getTableResource("user");
+        assertEquals(1, replacement.partition);
+
+        resourceManager.scheduleBatch(Arrays.asList(transaction), 0);
+        assertEquals(Arrays.asList(1L), scheduler.fired);
+        assertEquals(1, user.size());
+        assertEquals(0, replacement.size());
+    }
+
+    /**
+     * 并行分配的同时反复移除并重新注册一张表，新表每次换到另一个分配线程，
+     * 所有事务都要得到资源并释放，分配线程不能因为并发修改同一张表而出错
+     */
+    @Test
+    public void reloadDuringParallelAllocation() throws IOException, InterruptedException {
+        final File config = folder.newFile("reloading.json");
+        final String user = "{\"tableName\":\"user\",\"type\":\"Integer\",\"allocator\":0}";
+        writeConfig(config, "[" + user + ",{\"tableName\":\"audit\",\"type\":\"Integer\",\"allocator\":1}]");
+        final ParallelAllocationTest.RecordingScheduler scheduler =
+                new ParallelAllocationTest.RecordingScheduler(config.getPath(), 2, new ParkingWaitStrategy());
+        scheduler.start();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread reloader = new Thread("reloader") {
+            @Override
+            public void run() {
+                for (int i = 0; !done.get(); i++) {
+                    try {
+                        if (i % 2 == 0)
+                            writeConfig(config, "[" + user + "]");
+                        else
+                            writeConfig(config, "[" + user + ",{\"tableName\":\"audit\",\"type\":\"Integer\",\"allocator\":"
+                                    + (i / 2 % 2) + "}]");
+                        scheduler.reloadConfig();
+                    } catch (IOException | IllegalArgumentException e) {
+                        //写入一半的配置文件，下一轮重写
+                    }
+                }
+            }
+        };
+        reloader.start();
+        try {
+            Random random = new Random(7);
+            int transactionCount = 2000;
+            int released = 0;
+            for (int id = 0; id < transactionCount; id++) {
+                int left = random.nextInt(50);
+                List<Range> ranges = new ArrayList<Range>(Arrays.<Range>asList(
+                        new Range<Integer>(left, left + 5, Lock.X, "audit"),
+                        new Range<Integer>(left, left + 5, Lock.X, "user")));
+                scheduler.schedule(new Transaction(id, ranges, "transaction" + id));
+                if (id % 20 == 19 || id == transactionCount - 1)
+                    released = releaseUntilFired(scheduler, released, id + 1);
+            }
+            assertEquals(transactionCount, released);
+        } finally {
+            done.set(true);
+            reloader.join();
+            scheduler.close();
+        }
+    }
+
+    /**
+     * 不断释放满足执行条件的事务，直到expected个事务都得到资源
+     * @return 已经释放的事务数
+     */
+    private static int releaseUntilFired(ParallelAllocationTest.RecordingScheduler scheduler, int released,
+                                         int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (released < expected && System.currentTimeMillis() < deadline) {
+            List<TransactionImpl> fired = scheduler.firedSnapshot();
+            for (TransactionImpl transaction : fired.subList(released, fired.size()))
+                scheduler.releaseTransactions.put(transaction);
+            released = fired.size();
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        return released;
+    }
+
+    @Test
+    public void watcherReloadsModifiedConfig() throws IOException, InterruptedException {
+        File config = folder.newFile("watched.json");
+        writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\"}]");
+        ResourceManager resourceManager = new ResourceManager(config.getPath());
+        ConfigWatcher watcher = new ConfigWatcher(resourceManager);
+        watcher.start();
+        try {
+            writeConfig(config, "[{\"tableName\":\"user\",\"type\":\"Integer\"},{\"tableName\":\"audit\",\"type\":\"Long\"}]");
+            long deadline = System.currentTimeMillis() + 10000;
+            while (resourceManager.getTableId("audit") < 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(1, resourceManager.getTableId("audit"));
+        } finally {
+            watcher.close();
+            watcher.join(5000);
+        }
+        assertFalse(watcher.isAlive());
+    }
+
+}
@@ -0,0 +1,897 @@
+package distribute_transaction.scheduler;
+
+import distribute_transaction.core.ByteKey;
+import distribute_transaction.core.CompositeKey;
+import distribute_transaction.core.ObjectPool;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class TableResourceTest {
+
+    /**
+     * 不启动线程，只记录事务满足执行条件的顺序
+     */
+    static class RecordingScheduler extends Scheduler {
+        final List<Long> fired = new ArrayList<>();
+
+        @Override
+        synchronized void fireTransaction(Transaction transaction) {
+            fired.add(transaction.getTransactionId());
+        }
+    }
+
+    static final Lock[] LOCKS = {Lock.S, Lock.X, Lock.SIX};
+
+    interface Allocator {
+        void applyFor(Range range);
+    }
+
+    /**
+     * 一套独立的加锁环境，每个事务的范围均以{left,right,lock}描述，lock为0表示S，1表示X；
+     * 只有{lock}一项时为整表请求，lock为2表示SIX；
+     * {left,right,lock,leftBound,rightBound}中的bound为0表示开区间，1表示闭区间，2表示无界
+     */
+    static class World {
+        final RecordingScheduler scheduler = new RecordingScheduler();
+        final Allocator allocator;
+        final Map<Long,TransactionImpl> transactions = new HashMap<>();
+        final List<Long> running = new ArrayList<>();
+        private int firedSeen = 0;
+
+        World(Allocator allocator) {
+            this.allocator = allocator;
+        }
+
+        Range newRange(int left, int right, Lock lock) {
+            return new Range<Integer>(left, right, lock, "user");
+        }
+
+        void schedule(long id, int[]... specs) {
+            List<Range> ranges = new ArrayList<Range>();
+            for (int[] spec : specs) {
+                if (spec.length == 1)
+                    ranges.add(Range.wholeTable(LOCKS[spec[0]], "user"));
+                else if (spec.length == 5)
+                    ranges.add(new Range<Integer>(spec[3] == 2 ? null : spec[0], spec[3] == 1,
+                            spec[4] == 2 ? null : spec[1], spec[4] == 1, spec[2] == 0 ? Lock.S : Lock.X, "user"));
+                else
+                    ranges.add(newRange(spec[0], spec[1], spec[2] == 0 ? Lock.S : Lock.X));
+            }
+            TransactionImpl transaction = new TransactionImpl(id, ranges, scheduler);
+            transactions.put(id, transaction);
+            for (Range range : ranges) {
+                allocator.applyFor(range);
+            }
+            transaction.firstAllocatedCompleted();
+            collectFired();
+        }
+
+        /**
+         * 一批事务的范围通过{@link TableResource#applyForBatch}一次申请，再按顺序通知各事务
+         */
+        @SuppressWarnings("unchecked")
+        void scheduleBatch(TableResource tableResource, long firstId, List<int[][]> batch) {
+            List<Range> ranges = new ArrayList<Range>();
+            List<TransactionImpl> batchTransactions = new ArrayList<TransactionImpl>();
+            for (int i = 0; i < batch.size(); i++) {
+                List<Range> transactionRanges = new ArrayList<Range>();
+                for (int[] spec : batch.get(i)) {
+                    transactionRanges.add(newRange(spec[0], spec[1], spec[2] == 0 ? Lock.S : Lock.X));
+                }
+                TransactionImpl transaction = new TransactionImpl(firstId + i, transactionRanges, scheduler);
+                transactions.put(firstId + i, transaction);
+                batchTransactions.add(transaction);
+                ranges.addAll(transactionRanges);
+            }
+            tableResource.applyForBatch(ranges);
+            for (TransactionImpl transaction : batchTransactions) {
+                transaction.firstAllocatedCompleted();
+            }
+            collectFired();
+        }
+
+        void complete(long id) {
+            running.remove(id);
+            transactions.get(id).complete();
+            collectFired();
+        }
+
+        private void collectFired() {
+            while (firedSeen < scheduler.fired.size()) {
+                running.add(scheduler.fired.get(firedSeen++));
+            }
+        }
+    }
+
+    static World tableWorld(final TableResource tableResource) {
+        return new World(new Allocator() {
+            @Override
+            public void applyFor(Range range) {
+                tableResource.applyFor(range);
+            }
+        });
+    }
+
+    static World longTableWorld(final TableResource<Long> tableResource) {
+        return new World(new Allocator() {
+            @Override
+            public void applyFor(Range range) {
+                tableResource.applyFor(range);
+            }
+        }) {
+            @Override
+            Range newRange(int left, int right, Lock lock) {
+                return new Range<Long>((long) left, (long) right, lock, "user");
+            }
+        };
+    }
+
+    static World referenceWorld() {
+        final ListTableResource<Integer> reference = new ListTableResource<Integer>();
+        return new World(new Allocator() {
+            @Override
+            public void applyFor(Range range) {
+                reference.applyFor(range);
+            }
+        });
+    }
+
+    /**
+     * 随机生成事务与完成事件，要求两套环境的授予顺序完全一致
+     */
+    static void assertSameGrantOrder(World expected, World actual, long seed, int rounds, int keySpace) {
+        assertSameGrantOrder(expected, actual, seed, rounds, keySpace, Math.max(1, keySpace / 4), 0);
+    }
+
+    /**
+     * @param maxWidth      范围宽度的上限（不含）
+     * @param pointPercent  单点申请所占的百分比
+     */
+    static void assertSameGrantOrder(World expected, World actual, long seed, int rounds, int keySpace,
+                                     int maxWidth, int pointPercent) {
+        Random random = new Random(seed);
+        long nextId = 0;
+        for (int i = 0; i < rounds; i++) {
+            if (random.nextInt(5) < 3 || expected.running.isEmpty()) {
+                int rangeCount = 1 + random.nextInt(3);
+                int[][] specs = new int[rangeCount][];
+                for (int j = 0; j < rangeCount; j++) {
+                    int left = random.nextInt(keySpace);
+                    int right = random.nextInt(100) < pointPercent ? left + 1 : left + random.nextInt(maxWidth);
+                    specs[j] = new int[]{left, right, random.nextInt(2)};
+                }
+                expected.schedule(nextId, specs);
+                actual.schedule(nextId, specs);
+                nextId++;
+            } else {
+                long id = expected.running.get(random.nextInt(expected.running.size()));
+                expected.complete(id);
+                actual.complete(id);
+            }
+            assertEquals(expected.scheduler.fired, actual.scheduler.fired);
+        }
+    }
+
+    /**
+     * 请求与{@link SchedulerTest#multipleTransaction()}相同
+     */
+    @Test
+    public void multipleTransaction() {
+        World world = tableWorld(new TableResource<Integer>("user"));
+        world.schedule(1, new int[]{20, 50, 0});
+        world.schedule(2, new int[]{10, 30, 1});
+        world.schedule(3, new int[]{40, 60, 0});
+        world.schedule(4, new int[]{30, 45, 1});
+        world.schedule(5, new int[]{70, 80, 0});
+        world.schedule(6, new int[]{75, 90, 0});
+        world.schedule(7, new int[]{90, 120, 1});
+        assertEquals(Arrays.asList(1L, 3L, 5L, 6L, 7L), world.scheduler.fired);
+        world.complete(1);
+        assertEquals(Arrays.asList(1L, 3L, 5L, 6L, 7L, 2L), world.scheduler.fired);
+        world.complete(3);
+        assertEquals(Arrays.asList(1L, 3L, 5L, 6L, 7L, 2L, 4L), world.scheduler.fired);
+    }
+
+    @Test
+    public void sameGrantOrderAsListImplementation() {
+        for (long seed = 0; seed < 20; seed++) {
+            assertSameGrantOrder(referenceWorld(), tableWorld(new TableResource<Integer>("user")), seed, 3000, 64);
+        }
+    }
+
+    @Test
+    public void primitiveTablesKeepGrantOrder() {
+        for (long seed = 0; seed < 20; seed++) {
+            assertSameGrantOrder(referenceWorld(), tableWorld(new IntTableResource("user")), seed, 3000, 64);
+            assertSameGrantOrder(referenceWorld(), longTableWorld(new LongTableResource("user")), seed, 3000, 64);
+        }
+    }
+
+    /**
+     * 以单点申请为主，夹杂与之重叠的范围申请以及空范围，单点快速路径的授予顺序必须与原始实现一致
+     */
+    @Test
+    public void pointLocksKeepGrantOrder() {
+        for (long seed = 0; seed < 20; seed++) {
+            assertSameGrantOrder(referenceWorld(), tableWorld(new IntTableResource("user")), seed, 3000, 32, 6, 80);
+            assertSameGrantOrder(referenceWorld(), longTableWorld(new LongTableResource("user")), seed, 3000, 256, 40, 90);
+        }
+    }
+
+    @Test
+    public void deadPointsAreSwept() {
+        IntTableResource tableResource = new IntTableResource("user");
+        World world = tableWorld(tableResource);
+        for (int i = 0; i < 5000; i++) {
+            world.schedule(i, new int[]{i, i + 1, 1});
+            world.complete(i);
+        }
+        assertTrue(tableResource.size() <= 1024);
+    }
+
+    /**
+     * VLL按key判断冲突：事务的每个请求与之前所有未完成的请求在key上都不冲突时事务即可执行。
+     * 范围锁按范围判断，后来的读范围要等重叠的先前读范围获得资源，可能因为后者在别的key上
+     * 等待而多等，因此VLL授予的事务是范围锁的超集。左右边界相同的范围视为锁住左边界
+     */
+    @Test
+    public void vllGrantsByKeyConflicts() {
+        for (long seed = 0; seed < 8; seed++) {
+            World reference = referenceWorld();
+            World actual = tableWorld(TableResourceFactory.newTableResource("user", "Integer", "vll"));
+            List<int[]> requests = new ArrayList<int[]>();
+            Random random = new Random(seed);
+            long nextId = 0;
+            for (int i = 0; i < 1500; i++) {
+                if (random.nextInt(5) < 3 || reference.running.isEmpty()) {
+                    int[][] specs = new int[1 + random.nextInt(3)][];
+                    for (int j = 0; j < specs.length; j++) {
+                        int left = random.nextInt(48);
+                        int right = random.nextInt(100) < 70 ? left + 1 : left + random.nextInt(6);
+                        specs[j] = new int[]{left, right, random.nextInt(2)};
+                        requests.add(new int[]{left, Math.max(right, left + 1), specs[j][2], (int) nextId});
+                    }
+                    reference.schedule(nextId, specs);
+                    actual.schedule(nextId, specs);
+                    nextId++;
+                } else {
+                    List<Long> running = new ArrayList<>(reference.running);
+                    Collections.sort(running);
+                    long id = running.get(random.nextInt(running.size()));
+                    reference.complete(id);
+                    actual.complete(id);
+                    for (int j = requests.size() - 1; j >= 0; j--) {
+                        if (requests.get(j)[3] == id)
+                            requests.remove(j);
+                    }
+                }
+                Set<Long> fired = new HashSet<>(actual.scheduler.fired);
+                assertEquals(actual.scheduler.fired.size(), fired.size());
+                assertTrue(fired.containsAll(reference.scheduler.fired));
+                assertEquals(grantableByKeys(requests, nextId), fired);
+            }
+        }
+    }
+
+    /**
+     * 所有请求都与之前未完成的请求在key上不冲突的事务，已完成的事务也视为曾被授予
+     * @param requests  未完成事务的请求{left,right,lock,id}，按申请顺序排列
+     */
+    private static Set<Long> grantableByKeys(List<int[]> requests, long transactionCount) {
+        Set<Long> blocked = new HashSet<Long>();
+        for (int i = 0; i < requests.size(); i++) {
+            int[] request = requests.get(i);
+            for (int j = 0; j < i; j++) {
+                int[] earlier = requests.get(j);
+                boolean overlap = earlier[0] < request[1] && request[0] < earlier[1];
+                if (overlap && (earlier[2] == 1 || request[2] == 1)) {
+                    blocked.add((long) request[3]);
+                    break;
+                }
+            }
+        }
+        Set<Long> grantable = new HashSet<Long>();
+        for (long id = 0; id < transactionCount; id++) {
+            if (!blocked.contains(id))
+                grantable.add(id);
+        }
+        return grantable;
+    }
+
+    @Test
+    public void vllCountersReturnToZero() {
+        VllTableResource<Integer> tableResource =
+                (VllTableResource<Integer>) TableResourceFactory.newTableResource("user", "int", "vll");
+        World world = tableWorld(tableResource);
+        world.schedule(0, new int[]{5, 6, 1});
+        world.schedule(1, new int[]{5, 6, 0});
+        world.schedule(2, new int[]{4, 7, 0});
+        assertEquals(1, tableResource.exclusiveCount(5));
+        assertEquals(2, tableResource.sharedCount(5));
+        assertEquals(Arrays.asList(0L), world.scheduler.fired);
+        world.complete(0);
+        assertEquals(Arrays.asList(0L, 1L, 2L), world.scheduler.fired);
+        world.complete(2);
+        world.complete(1);
+        assertEquals(0, tableResource.sharedCount(5));
+        assertEquals(0, tableResource.size());
+    }
+
+    /**
+     * VLL表按key展开范围，覆盖的key数超过上限时拒绝申请，不留下计数与队列中的槽位
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void vllRejectsWideRanges() {
+        VllTableResource<Long> tableResource =
+                (VllTableResource<Long>) TableResourceFactory.newTableResource("user", "Long", "vll");
+        tableResource.maxRangeWidth = 16;
+        RecordingScheduler scheduler = new RecordingScheduler();
+        Range[] wide = {new Range<Long>(0L, 17L, Lock.X, "user"),
+                new Range<Long>(Long.MIN_VALUE, 0L, Lock.S, "user"),
+                new Range<Long>(Long.MIN_VALUE, true, Long.MAX_VALUE, true, Lock.X, "user")};
+        for (Range range : wide) {
+            new TransactionImpl(1, new ArrayList<Range>(Arrays.asList(range)), scheduler);
+            try {
+                tableResource.applyFor(range);
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertEquals(0, tableResource.size());
+            }
+        }
+        Range<Long> widest = new Range<Long>(0L, 16L, Lock.X, "user");
+        TransactionImpl transaction = new TransactionImpl(2, new ArrayList<Range>(Arrays.<Range>asList(widest)), scheduler);
+        tableResource.applyFor(widest);
+        transaction.firstAllocatedCompleted();
+        assertEquals(Arrays.asList(2L), scheduler.fired);
+        assertEquals(1, tableResource.exclusiveCount(15));
+        assertEquals(0, tableResource.exclusiveCount(16));
+    }
+
+    @Test
+    public void factoryPicksPrimitiveTables() {
+        assertTrue(TableResourceFactory.newTableResource("user", "int") instanceof IntTableResource);
+        assertTrue(TableResourceFactory.newTableResource("user", "Integer") instanceof IntTableResource);
+        assertTrue(TableResourceFactory.newTableResource("user", "Long") instanceof LongTableResource);
+        assertFalse(TableResourceFactory.newTableResource("user", "String") instanceof PrimitiveTableResource);
+        assertTrue(TableResourceFactory.newTableResource("user", "Long", "vll") instanceof VllTableResource);
+        assertTrue(TableResourceFactory.newTableResource("user", "Long", "range") instanceof LongTableResource);
+    }
+
+    /**
+     * 每一轮释放所有在执行的事务，只要事务自身的范围互不重叠，所有事务最终都应该执行。
+     * 同一个读范围经由前继的多个子结点等待同一个写范围时，事务也只能被通知一次
+     */
+    @Test
+    public void everyTransactionEventuallyFires() {
+        Random random = new Random(3);
+        for (int round = 0; round < 2000; round++) {
+            World world = tableWorld(new IntTableResource("user"));
+            int transactionCount = 2 + random.nextInt(6);
+            for (int id = 0; id < transactionCount; id++) {
+                int[][] specs = new int[1 + random.nextInt(2)][];
+                for (int j = 0; j < specs.length; j++) {
+                    int left = j * 10 + random.nextInt(5);
+                    specs[j] = new int[]{left, left + 1 + random.nextInt(4), random.nextInt(2)};
+                }
+                world.schedule(id, specs);
+            }
+            while (!world.running.isEmpty()) {
+                for (Long id : new ArrayList<>(world.running))
+                    world.complete(id);
+            }
+            assertEquals(transactionCount, world.scheduler.fired.size());
+        }
+    }
+
+    /**
+     * 整批申请与逐个申请的授予顺序必须完全一致，包括批内互相重叠、左边界相同以及
+     * 序号顺序与左边界顺序相反的范围
+     */
+    @Test
+    public void batchGrantsMatchSequential() {
+        for (long seed = 0; seed < 20; seed++) {
+            assertBatchMatchesSequential(new TableResource<Integer>("user"), seed);
+            assertBatchMatchesSequential(new IntTableResource("user"), seed);
+        }
+    }
+
+    private static void assertBatchMatchesSequential(TableResource tableResource, long seed) {
+        World expected = referenceWorld();
+        World actual = tableWorld(tableResource);
+        Random random = new Random(seed);
+        long nextId = 0;
+        for (int i = 0; i < 400; i++) {
+            if (random.nextInt(2) == 0 || expected.running.isEmpty()) {
+                List<int[][]> batch = new ArrayList<int[][]>();
+                int batchSize = 1 + random.nextInt(16);
+                for (int j = 0; j < batchSize; j++) {
+                    int[][] specs = new int[1 + random.nextInt(3)][];
+                    for (int k = 0; k < specs.length; k++) {
+                        int left = random.nextInt(256);
+                        specs[k] = new int[]{left, left + random.nextInt(24), random.nextInt(2)};
+                    }
+                    batch.add(specs);
+                    expected.schedule(nextId + j, specs);
+                }
+                actual.scheduleBatch(tableResource, nextId, batch);
+                nextId += batchSize;
+            } else {
+                int completions = 1 + random.nextInt(expected.running.size());
+                for (int j = 0; j < completions && !expected.running.isEmpty(); j++) {
+                    long id = expected.running.get(random.nextInt(expected.running.size()));
+                    expected.complete(id);
+                    actual.complete(id);
+                }
+            }
+            assertEquals(expected.scheduler.fired, actual.scheduler.fired);
+        }
+    }
+
+    @Test
+    public void wholeTableQueuesBehindRanges() {
+        TableResource<Integer> tableResource = new IntTableResource("user");
+        World world = tableWorld(tableResource);
+        world.schedule(0, new int[]{0, 10, 1});
+        world.schedule(1, new int[]{20, 30, 0});
+        world.schedule(2, new int[]{1});
+        world.schedule(3, new int[]{40, 50, 0});
+        assertEquals(Arrays.asList(0L, 1L), world.scheduler.fired);
+        //整表请求不进入加锁范围，等待意向锁的范围照常加入
+        assertEquals(3, tableResource.size());
+        world.complete(0);
+        world.complete(1);
+        assertEquals(Arrays.asList(0L, 1L, 2L), world.scheduler.fired);
+        world.complete(2);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), world.scheduler.fired);
+        world.complete(3);
+        assertEquals(0, tableResource.getTableLock().grantedCount(Lock.IS));
+        assertEquals(0, tableResource.getTableLock().waitingCount());
+    }
+
+    @Test
+    public void wholeTableReadSharesWithRangeReads() {
+        World world = tableWorld(new TableResource<Integer>("user"));
+        world.schedule(0, new int[]{0, 10, 0});
+        world.schedule(1, new int[]{0});
+        world.schedule(2, new int[]{20, 30, 1});
+        //IS与S以及等待中的IX都相容
+        world.schedule(3, new int[]{5, 6, 0});
+        assertEquals(Arrays.asList(0L, 1L, 3L), world.scheduler.fired);
+        world.complete(1);
+        assertEquals(Arrays.asList(0L, 1L, 3L, 2L), world.scheduler.fired);
+    }
+
+    @Test
+    public void sixWritesUnderItsOwnTableLock() {
+        TableResource<Integer> tableResource = new IntTableResource("user");
+        World world = tableWorld(tableResource);
+        world.schedule(0, new int[]{2}, new int[]{0, 10, 1});
+        world.schedule(1, new int[]{0, 10, 0});
+        world.schedule(2, new int[]{50, 60, 0});
+        world.schedule(3, new int[]{70, 80, 1});
+        assertEquals(Arrays.asList(0L, 2L), world.scheduler.fired);
+        world.complete(0);
+        assertEquals(Arrays.asList(0L, 2L, 3L, 1L), world.scheduler.fired);
+    }
+
+    /**
+     * 随机混合整表请求与范围请求，在执行的事务之间不能有冲突，所有事务最终都应该执行，
+     * 表级锁的计数最终归零
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void wholeTableLocksMixWithRanges() {
+        Random random = new Random(11);
+        for (int round = 0; round < 300; round++) {
+            TableResource<Integer> tableResource;
+            switch (round % 3) {
+                case 0: tableResource = new TableResource<Integer>("user"); break;
+                case 1: tableResource = new IntTableResource("user"); break;
+                default: tableResource = TableResourceFactory.newTableResource("user", "int", "vll");
+            }
+            World world = tableWorld(tableResource);
+            Map<Long,int[][]> requests = new HashMap<Long,int[][]>();
+            int transactionCount = 4 + random.nextInt(12);
+            for (int id = 0; id < transactionCount; id++) {
+                int[][] specs;
+                if (random.nextInt(5) == 0) {
+                    int lock = random.nextInt(3);
+                    specs = lock == 2 ? new int[][]{{2}, {random.nextInt(20), 25, 1}} : new int[][]{{lock}};
+                } else {
+                    int left = random.nextInt(20);
+                    specs = new int[][]{{left, left + 1 + random.nextInt(4), random.nextInt(2)}};
+                }
+                requests.put((long) id, specs);
+                world.schedule(id, specs);
+                assertNoConflicts(world.running, requests);
+                if (random.nextBoolean() && !world.running.isEmpty()) {
+                    world.complete(world.running.get(random.nextInt(world.running.size())));
+                    assertNoConflicts(world.running, requests);
+                }
+            }
+            while (!world.running.isEmpty()) {
+                world.complete(world.running.get(0));
+                assertNoConflicts(world.running, requests);
+            }
+            assertEquals(transactionCount, world.scheduler.fired.size());
+            TableLock tableLock = tableResource.getTableLock();
+            for (Lock lock : Lock.values())
+                assertEquals(0, tableLock.grantedCount(lock));
+            assertEquals(0, tableLock.waitingCount());
+        }
+    }
+
+    private static void assertNoConflicts(List<Long> running, Map<Long,int[][]> requests) {
+        for (int i = 0; i < running.size(); i++) {
+            for (int j = i + 1; j < running.size(); j++) {
+                for (int[] first : requests.get(running.get(i))) {
+                    for (int[] second : requests.get(running.get(j))) {
+                        assertFalse(running.get(i) + " conflicts with " + running.get(j), conflicts(first, second));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean conflicts(int[] first, int[] second) {
+        if (first.length == 1 || second.length == 1) {
+            Lock firstLock = first.length == 1 ? LOCKS[first[0]] : first[2] == 0 ? Lock.IS : Lock.IX;
+            Lock secondLock = second.length == 1 ? LOCKS[second[0]] : second[2] == 0 ? Lock.IS : Lock.IX;
+            return !firstLock.compatibleWith(secondLock);
+        }
+        boolean overlap = first[0] < second[1] && second[0] < first[1];
+        return overlap && (first[2] == 1 || second[2] == 1);
+    }
+
+    @Test
+    public void unboundedRangeIsOneApplyRange() {
+        for (TableResource<Integer> tableResource : Arrays.asList(new TableResource<Integer>("user"), new IntTableResource("user"))) {
+            World world = tableWorld(tableResource);
+            world.schedule(0, new int[]{0, 10, 1});
+            world.schedule(1, new int[]{20, 30, 1});
+            world.schedule(2, new int[]{40, 50, 1});
+            //(25, +inf)
+            world.schedule(3, new int[]{25, 0, 0, 0, 2});
+            assertEquals(3, tableResource.size());
+            world.schedule(4, new int[]{100, 110, 1});
+            world.complete(1);
+            world.complete(2);
+            assertEquals(Arrays.asList(0L, 1L, 2L, 3L), world.scheduler.fired);
+            world.complete(3);
+            assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), world.scheduler.fired);
+        }
+    }
+
+    /**
+     * 开闭区间与无界的范围，授予顺序与换算成左闭右开后的有界范围一致。
+     * 通用的表不知道相邻的整数之间没有其他值，只比较左闭右开或无界的范围
+     */
+    @Test
+    public void boundsMatchNormalizedRanges() {
+        for (long seed = 0; seed < 10; seed++) {
+            assertSameAsNormalized(new IntTableResource("user"), true, seed);
+            assertSameAsNormalized(new TableResource<Integer>("user"), false, seed);
+        }
+    }
+
+    private static void assertSameAsNormalized(TableResource<Integer> tableResource, boolean anyBound, long seed) {
+        World expected = referenceWorld();
+        World actual = tableWorld(tableResource);
+        Random random = new Random(seed);
+        long nextId = 0;
+        for (int i = 0; i < 600; i++) {
+            if (random.nextInt(5) < 3 || expected.running.isEmpty()) {
+                int rangeCount = 1 + random.nextInt(2);
+                int[][] specs = new int[rangeCount][];
+                int[][] normalized = new int[rangeCount][];
+                for (int j = 0; j < rangeCount; j++) {
+                    int left = random.nextInt(64);
+                    int right = left + random.nextInt(12);
+                    int lock = random.nextInt(2);
+                    int leftBound = random.nextInt(10) == 0 ? 2 : anyBound ? random.nextInt(2) : 1;
+                    int rightBound = random.nextInt(10) == 0 ? 2 : anyBound ? random.nextInt(2) : 0;
+                    specs[j] = new int[]{left, right, lock, leftBound, rightBound};
+                    normalized[j] = new int[]{
+                            leftBound == 2 ? Integer.MIN_VALUE : leftBound == 1 ? left : left + 1,
+                            rightBound == 2 ? Integer.MAX_VALUE : rightBound == 1 ? right + 1 : right,
+                            lock};
+                }
+                expected.schedule(nextId, normalized);
+                actual.schedule(nextId, specs);
+                nextId++;
+            } else {
+                long id = expected.running.get(random.nextInt(expected.running.size()));
+                expected.complete(id);
+                actual.complete(id);
+            }
+            assertEquals(expected.scheduler.fired, actual.scheduler.fired);
+        }
+    }
+
+    @Test
+    public void compactionReclaimsDeadRanges() {
+        for (TableResource<Integer> tableResource : Arrays.asList(new TableResource<Integer>("user"), new IntTableResource("user"))) {
+            World world = tableWorld(tableResource);
+            for (int i = 0; i < 200; i++)
+                world.schedule(i, new int[]{i * 10, i * 10 + 5, 1});
+            for (int i = 0; i < 50; i++)
+                world.schedule(200 + i, new int[]{i * 10 + 7, i * 10 + 8, 0});
+            for (long id = 0; id < 250; id++)
+                world.complete(id);
+            assertEquals(250, tableResource.size());
+            //截止时间已过，只扫描一小段，下次从该位置继续
+            int reclaimed = tableResource.compact(System.nanoTime());
+            assertTrue(reclaimed > 0 && reclaimed < 250);
+            reclaimed += tableResource.compact(Long.MAX_VALUE);
+            assertEquals(250, reclaimed);
+            assertEquals(0, tableResource.size());
+            //没有新的释放时不再扫描
+            assertEquals(0, tableResource.compact(Long.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void compactionKeepsGrantOrder() {
+        for (long seed = 0; seed < 10; seed++) {
+            for (TableResource<Integer> tableResource : Arrays.asList(new TableResource<Integer>("user"), new IntTableResource("user"))) {
+                World expected = referenceWorld();
+                World actual = tableWorld(tableResource);
+                Random random = new Random(seed);
+                long nextId = 0;
+                for (int i = 0; i < 600; i++) {
+                    if (random.nextInt(5) < 3 || expected.running.isEmpty()) {
+                        int[][] specs = new int[1 + random.nextInt(2)][];
+                        for (int j = 0; j < specs.length; j++) {
+                            int left = random.nextInt(128);
+                            specs[j] = new int[]{left, left + (random.nextBoolean() ? 1 : random.nextInt(8)), random.nextInt(2)};
+                        }
+                        expected.schedule(nextId, specs);
+                        actual.schedule(nextId, specs);
+                        nextId++;
+                    } else {
+                        long id = expected.running.get(random.nextInt(expected.running.size()));
+                        expected.complete(id);
+                        actual.complete(id);
+                    }
+                    tableResource.compact(System.nanoTime());
+                    assertEquals(expected.scheduler.fired, actual.scheduler.fired);
+                }
+            }
+        }
+    }
+
+    /**
+     * 读范围经由同一根结点的两个子结点申请时只登记一次，计数不能多减或少减
+     */
+    @Test
+    public void rangeWaitsOnceThroughSplitParent() {
+        World world = tableWorld(new TableResource<Integer>("user"));
+        world.schedule(0, new int[]{0, 30, 1});
+        world.schedule(1, new int[]{10, 20, 0});
+        world.schedule(2, new int[]{0, 30, 0});
+        world.schedule(3, new int[]{0, 30, 1});
+        assertEquals(Arrays.asList(0L), world.scheduler.fired);
+        world.complete(0);
+        assertEquals(Arrays.asList(0L, 1L, 2L), world.scheduler.fired);
+        world.complete(2);
+        assertEquals(Arrays.asList(0L, 1L, 2L), world.scheduler.fired);
+        world.complete(1);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), world.scheduler.fired);
+    }
+
+    /**
+     * 范围对象复用后授予顺序不变，并且稳定运行时申请不再新建范围
+     */
+    @Test
+    public void recycledRangesKeepGrantOrder() {
+        for (long seed = 0; seed < 10; seed++) {
+            TableResource<Integer> tableResource = new TableResource<Integer>("user");
+            IntTableResource intTableResource = new IntTableResource("user");
+            assertSameGrantOrder(referenceWorld(), tableWorld(tableResource), seed, 3000, 64);
+            assertSameGrantOrder(referenceWorld(), tableWorld(intTableResource), seed, 3000, 32, 6, 80);
+            assertTrue(tableResource.getRangePool().hits() > 0);
+            assertTrue(intTableResource.getRangePool().hits() > 0);
+        }
+
+        IntTableResource tableResource = new IntTableResource("user");
+        World world = tableWorld(tableResource);
+        for (int i = 0; i < 5000; i++) {
+            world.schedule(i, new int[]{i % 16, i % 16 + 1, 1});
+            world.complete(i);
+        }
+        ObjectPool<ApplyRange<Integer>> rangePool = tableResource.getRangePool();
+        assertTrue(rangePool.misses() <= 32);
+        assertTrue(rangePool.hitRate() > 0.99);
+    }
+
+    /**
+     * 边界相同的读请求加入同一个共享组，只占一个加锁范围，组内全部释放后写请求才获得资源
+     */
+    @Test
+    public void identicalReadsShareOneRange() {
+        for (TableResource<Integer> tableResource : Arrays.asList(new TableResource<Integer>("user"), new IntTableResource("user"))) {
+            World world = tableWorld(tableResource);
+            world.schedule(0, new int[]{0, 10, 1});
+            for (int i = 1; i <= 100; i++)
+                world.schedule(i, new int[]{0, 10, 0});
+            assertEquals(1, tableResource.size());
+            world.schedule(101, new int[]{0, 10, 1});
+            assertEquals(Arrays.asList(0L), world.scheduler.fired);
+            world.complete(0);
+            assertEquals(101, world.scheduler.fired.size());
+            for (int i = 100; i >= 2; i--)
+                world.complete(i);
+            assertEquals(101, world.scheduler.fired.size());
+            world.complete(1);
+            assertEquals(Long.valueOf(101), world.scheduler.fired.get(101));
+
+            //单点读请求同样合并
+            world.schedule(102, new int[]{50, 51, 0});
+            world.schedule(103, new int[]{50, 51, 0});
+            world.schedule(104, new int[]{50, 51, 1});
+            assertEquals(Arrays.asList(102L, 103L), world.scheduler.fired.subList(102, 104));
+            world.complete(102);
+            world.complete(103);
+            assertEquals(Long.valueOf(104), world.scheduler.fired.get(104));
+        }
+    }
+
+    /**
+     * 大量边界相同的范围，共享组的授予顺序必须与原始实现一致
+     */
+    @Test
+    public void sharedGroupsKeepGrantOrder() {
+        for (long seed = 0; seed < 20; seed++) {
+            assertSameGrantOrder(referenceWorld(), tableWorld(new TableResource<Integer>("user")), seed, 3000, 8, 3, 30);
+            assertSameGrantOrder(referenceWorld(), tableWorld(new IntTableResource("user")), seed, 3000, 8, 3, 30);
+        }
+    }
+
+    /**
+     * 键值递增、偶尔回退的申请，从上一次的位置向两侧查找前继，授予顺序与原始实现一致
+     */
+    @Test
+    public void sequentialRangesKeepGrantOrder() {
+        for (TableResource<Integer> tableResource : Arrays.asList(new TableResource<Integer>("user"), new IntTableResource("user"))) {
+            World expected = referenceWorld();
+            World actual = tableWorld(tableResource);
+            Random random = new Random(3);
+            int next = 0;
+            for (long id = 0; id < 3000; id++) {
+                int left = random.nextInt(10) == 0 ? Math.max(0, next - random.nextInt(50)) : next;
+                int[] spec = {left, left + 2 + random.nextInt(6), random.nextInt(2)};
+                next = left + 3;
+                expected.schedule(id, spec);
+                actual.schedule(id, spec);
+                if (expected.running.size() > 20) {
+                    long done = expected.running.get(random.nextInt(expected.running.size()));
+                    expected.complete(done);
+                    actual.complete(done);
+                }
+                assertEquals(expected.scheduler.fired, actual.scheduler.fired);
+            }
+        }
+    }
+
+    static IntTableResource filteredTable(long bucketWidth, int buckets) {
+        IntTableResource tableResource = new IntTableResource("user");
+        tableResource.setConflictFilter(new ConflictFilter(bucketWidth, buckets));
+        return tableResource;
+    }
+
+    /**
+     * 过滤器只在没有任何重叠范围时跳过跳表，授予顺序与原始实现完全一致
+     */
+    @Test
+    public void filteredTablesKeepGrantOrder() {
+        for (long seed = 0; seed < 10; seed++) {
+            assertSameGrantOrder(referenceWorld(), tableWorld(filteredTable(4, 64)), seed, 3000, 64);
+            assertSameGrantOrder(referenceWorld(), tableWorld(filteredTable(8, 16)), seed, 3000, 4096, 6, 50);
+            assertSameGrantOrder(referenceWorld(), tableWorld(filteredTable(1, 7)), seed, 3000, 256, 3, 30);
+        }
+    }
+
+    @Test
+    public void sparseRangesSkipLockList() {
+        IntTableResource tableResource = filteredTable(16, 256);
+        World world = tableWorld(tableResource);
+        for (int i = 0; i < 100; i++)
+            world.schedule(i, new int[]{i * 16, i * 16 + 1 + i % 8, i % 2});
+        assertEquals(100, world.scheduler.fired.size());
+        //单点范围放入哈希表，其余范围都暂存在槽位中
+        assertEquals(87, tableResource.isolatedCount());
+        assertEquals(100, tableResource.size());
+        //与暂存范围重叠的申请先把它放回跳表，再按原有算法等待
+        world.schedule(100, new int[]{20, 40, 1});
+        assertEquals(100, world.scheduler.fired.size());
+        world.complete(1);
+        world.complete(2);
+        assertEquals(Long.valueOf(100), world.scheduler.fired.get(100));
+        for (int i = 0; i <= 100; i++) {
+            if (i != 1 && i != 2)
+                world.complete(i);
+        }
+        tableResource.compact(Long.MAX_VALUE);
+        assertEquals(0, tableResource.size());
+        //所有计数都已归零
+        assertTrue(tableResource.getConflictFilter().isEmpty(0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void conflictFilterFromConfig() {
+        ResourceManager resourceManager = new ResourceManager(ParallelAllocationTest.CONFIG);
+        TableResource ledger = resourceManager.getTableResource("ledger");
+        assertEquals(1024, ((PrimitiveTableResource) ledger).getConflictFilter().buckets());
+        assertNull(((PrimitiveTableResource) resourceManager.getTableResource("account")).getConflictFilter());
+    }
+
+    /**
+     * 组合主键按列比较，只给出前几列的范围覆盖以其为前缀的所有key
+     */
+    @Test
+    public void compositeKeysFromConfig() {
+        RecordingScheduler scheduler = new RecordingScheduler();
+        ResourceManager resourceManager = new ResourceManager(ParallelAllocationTest.CONFIG);
+        TransactionImpl writer = new TransactionImpl(1, new ArrayList<Range>(Arrays.<Range>asList(
+                new Range<CompositeKey>(CompositeKey.of(1, 10), CompositeKey.of(1, 20), Lock.X, "shipments"))), scheduler);
+        TransactionImpl tenantReader = new TransactionImpl(2, new ArrayList<Range>(Arrays.<Range>asList(
+                new Range<CompositeKey>(CompositeKey.of(1), CompositeKey.of(2), Lock.S, "shipments"))), scheduler);
+        TransactionImpl otherTenant = new TransactionImpl(3, new ArrayList<Range>(Arrays.<Range>asList(
+                new Range<CompositeKey>(CompositeKey.of(2, 10), CompositeKey.of(2, 20), Lock.X, "shipments"))), scheduler);
+        resourceManager.schedule(writer);
+        resourceManager.schedule(tenantReader);
+        resourceManager.schedule(otherTenant);
+        assertEquals(Arrays.asList(1L, 3L), scheduler.fired);
+        writer.complete();
+        assertEquals(Arrays.asList(1L, 3L, 2L), scheduler.fired);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compositeKeysRejectOtherColumnTypes() {
+        TableResourceFactory.newTableResource("shipments", new String[]{"Long", "Double"}, null);
+    }
+
+    @Test
+    public void stringColumnsUseByteKeys() {
+        TableResource<ByteKey> tableResource =
+                TableResourceFactory.newTableResource("tenants", new String[]{"String", "Long"}, null);
+        World world = new World(tableWorld(tableResource).allocator) {
+            @Override
+            Range newRange(int left, int right, Lock lock) {
+                return new Range<ByteKey>(ByteKey.builder().append("acme").append(left).build(),
+                        ByteKey.builder().append("acme").append(right).build(), lock, "user");
+            }
+        };
+        world.schedule(1, new int[]{-10, 10, 1});
+        world.schedule(2, new int[]{10, 20, 1});
+        world.schedule(3, new int[]{5, 6, 0});
+        assertEquals(Arrays.asList(1L, 2L), world.running);
+        world.complete(1);
+        assertEquals(Arrays.asList(2L, 3L), world.running);
+    }
+
+    @Test
+    public void deadRangesAreDropped() {
+        TableResource<Integer> tableResource = new TableResource<Integer>("user");
+        World world = tableWorld(tableResource);
+        for (int i = 0; i < 100; i++) {
+            world.schedule(i, new int[]{i * 10, i * 10 + 5, 1});
+            world.complete(i);
+        }
+        world.schedule(100, new int[]{0, 1000, 1});
+        assertEquals(1, tableResource.size());
+    }
+
+}